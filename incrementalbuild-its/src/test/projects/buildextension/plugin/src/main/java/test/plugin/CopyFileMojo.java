@@ -4,12 +4,10 @@ import io.takari.incrementalbuild.BuildContext;
 import io.takari.incrementalbuild.Incremental;
 import io.takari.incrementalbuild.Incremental.Configuration;
 import io.takari.incrementalbuild.Resource;
+import io.takari.incrementalbuild.spi.DefaultOutput;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -20,7 +18,6 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.classworlds.realm.ClassRealm;
-import org.codehaus.plexus.util.IOUtil;
 
 @Mojo(name = "copyfile", defaultPhase = LifecyclePhase.COMPILE)
 public class CopyFileMojo extends AbstractMojo {
@@ -55,17 +52,7 @@ public class CopyFileMojo extends AbstractMojo {
 
     Resource<File> input = context.registerInput(this.input).process();
     try {
-      InputStream is = new FileInputStream(input.getResource());
-      try {
-        OutputStream os = input.associateOutput(this.output).newOutputStream();
-        try {
-          IOUtil.copy(is, os);
-        } finally {
-          IOUtil.close(os);
-        }
-      } finally {
-        IOUtil.close(is);
-      }
+      DefaultOutput.copyFrom(input.associateOutput(this.output), input.getResource());
     } catch (IOException e) {
       throw new MojoExecutionException("Could not copy file", e);
     }
@@ -2,12 +2,10 @@ package test.plugin;
 
 import io.takari.incrementalbuild.BuildContext;
 import io.takari.incrementalbuild.Resource;
+import io.takari.incrementalbuild.spi.DefaultOutput;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -16,7 +14,6 @@ import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.codehaus.plexus.util.IOUtil;
 
 @Mojo(name = "copyfile", defaultPhase = LifecyclePhase.COMPILE)
 public class CopyFileMojo extends AbstractMojo {
@@ -39,17 +36,7 @@ public class CopyFileMojo extends AbstractMojo {
 
     Resource<File> input = context.registerInput(this.input).process();
     try {
-      InputStream is = new FileInputStream(input.getResource());
-      try {
-        OutputStream os = input.associateOutput(this.output).newOutputStream();
-        try {
-          IOUtil.copy(is, os);
-        } finally {
-          IOUtil.close(os);
-        }
-      } finally {
-        IOUtil.close(is);
-      }
+      DefaultOutput.copyFrom(input.associateOutput(this.output), input.getResource());
     } catch (IOException e) {
       throw new MojoExecutionException("Could not copy file", e);
     }
@@ -1,6 +1,8 @@
 package io.takari.incrementalbuild;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
 
 /**
  * Build context that tracks inputs and outputs but not associations among them.
@@ -12,7 +14,26 @@ import java.io.File;
 public interface BasicBuildContext {
   public ResourceMetadata<File> registerInput(File inputFile);
 
+  /**
+   * Registers specified input {@code File}s with this build context. Equivalent to calling
+   * {@link #registerInput(File)} for each file, but files are canonicalized and their attributes
+   * read in parallel.
+   *
+   * @return {@link ResourceMetadata} representing the input files, in the order of
+   *         {@code inputFiles}
+   */
+  public Iterable<? extends ResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException;
+
   public boolean isProcessingRequired();
 
   public Output<File> processOutput(File outputFile);
+
+  /**
+   * Returns outputs whose contents were created or changed during this build, as opposed to
+   * outputs that were processed but rewritten with the same contents. Consumers of the outputs can
+   * use this to avoid reprocessing when none of the outputs actually changed. Outputs deleted
+   * during the build are not included.
+   */
+  public Collection<File> getModifiedOutputs();
 }
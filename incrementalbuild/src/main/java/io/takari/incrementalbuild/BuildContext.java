@@ -3,9 +3,29 @@ package io.takari.incrementalbuild;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Build context that supports 1..* input-output associations.
+ * <p>
+ * Inputs can be registered and processed by multiple threads concurrently. The following methods
+ * are safe to call from any thread while the build is in progress:
+ * <ul>
+ * <li>{@link #registerInput(File)} and the other {@code register*} methods of this interface,</li>
+ * <li>{@link ResourceMetadata#getStatus()} and {@link ResourceMetadata#process()},</li>
+ * <li>{@link Resource#associateOutput(File)}, {@link Resource#associateOutput(Output)} and
+ * {@link Resource#addMessage(int, int, String, MessageSeverity, Throwable)},</li>
+ * <li>{@link Output#newOutputStream()} and the other methods that write output contents.</li>
+ * </ul>
+ * Each operation is atomic with respect to the build state. Operations on the same resource
+ * performed by different threads are applied in an unspecified order, for example messages added
+ * to an input by one thread while another thread processes the same input may be discarded. Each
+ * output must be written by one thread at a time. {@link #getModifiedOutputs()} and
+ * {@link #markSkipExecution()} must only be called after all other threads finished working with
+ * this build context.
+ * <p>
+ * Concurrent use requires a thread-safe {@link io.takari.incrementalbuild.workspace.Workspace},
+ * which is the case for plain filesystem and Maven command line builds.
  */
 public interface BuildContext {
 
@@ -17,6 +37,18 @@ public interface BuildContext {
    */
   public ResourceMetadata<File> registerInput(File inputFile);
 
+  /**
+   * Registers specified input {@code File}s with this build context. Equivalent to calling
+   * {@link #registerInput(File)} for each file, but files are canonicalized and their attributes
+   * read in parallel.
+   *
+   * @return {@link ResourceMetadata} representing the input files, in the order of
+   *         {@code inputFiles}
+   * @throws IllegalArgumentException if any of the files is not a file or cannot be read
+   */
+  public Iterable<? extends ResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException;
+
   /**
    * Registers inputs identified by {@code basedir} and {@code includes}/{@code excludes} ant
    * patterns.
@@ -38,6 +70,16 @@ public interface BuildContext {
   public Iterable<? extends ResourceMetadata<File>> registerInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException;
 
+  /**
+   * Registers inputs identified by multiple {@link InputSpec}s. This is equivalent to calling
+   * {@link #registerInputs(File, Collection, Collection)} for each spec, but walks each directory
+   * only once, even if basedirs of several specs are the same or nested.
+   *
+   * @returns registered inputs grouped by spec, in the order of {@code specs}
+   */
+  public Map<InputSpec, ? extends Iterable<? extends ResourceMetadata<File>>> registerInputSpecs(
+      Collection<InputSpec> specs) throws IOException;
+
   /**
    * Registers inputs identified by {@code basedir} and {@code includes}/{@code excludes} ant
    * patterns. Processes inputs that are new or modified since previous build.
@@ -47,6 +89,48 @@ public interface BuildContext {
   public Iterable<? extends Resource<File>> registerAndProcessInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException;
 
+  /**
+   * Registers inputs identified by {@code basedir} and {@code includes}/{@code excludes} ant
+   * patterns. Inputs that are new or modified since previous build are passed to the
+   * {@code processor} as soon as they are found, while {@code basedir} is still being walked. The
+   * processor is called on the calling thread, in walk order.
+   * <p>
+   * Outputs must not be created under {@code basedir}, as they may or may not be visited by the
+   * walk that is still in progress.
+   *
+   * @param processor is called for each processed input, must not be {@code null}
+   */
+  public void registerAndProcessInputs(File basedir, Collection<String> includes,
+      Collection<String> excludes, ResourceProcessor processor) throws IOException;
+
+  /**
+   * Registers inputs identified by {@code basedir} and {@code includes}/{@code excludes} ant
+   * patterns. Inputs that are new or modified since previous build are passed to the
+   * {@code processor} concurrently, by a pool of threads, while {@code basedir} is still being
+   * walked. Inputs waiting for processing are processed largest first. If the number of threads is
+   * one, inputs are processed on the calling thread in walk order, same as
+   * {@link #registerAndProcessInputs(File, Collection, Collection, ResourceProcessor)}.
+   * <p>
+   * The processor is called from multiple threads and must be thread-safe, see the thread safety
+   * contract of this interface. The number of threads defaults to the number of available
+   * processors and can be changed using {@code incrementalbuild.processingThreads} system property.
+   * <p>
+   * If the processor fails for any input, inputs not yet passed to the processor are not processed
+   * and the first failure is rethrown once all running processor calls completed.
+   *
+   * @param processor is called for each processed input, must not be {@code null}
+   */
+  public void processInputsInParallel(File basedir, Collection<String> includes,
+      Collection<String> excludes, ResourceProcessor processor) throws IOException;
+
   public void markSkipExecution();
 
+  /**
+   * Returns outputs whose contents were created or changed during this build, as opposed to
+   * outputs that were processed but rewritten with the same contents. Consumers of the outputs can
+   * use this to avoid reprocessing when none of the outputs actually changed. Outputs deleted
+   * during the build are not included.
+   */
+  public Collection<File> getModifiedOutputs();
+
 }
@@ -0,0 +1,91 @@
+package io.takari.incrementalbuild;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Identifies inputs by {@code basedir} and {@code includes}/{@code excludes} ant patterns.
+ *
+ * @see BuildContext#registerInputs(File, Collection, Collection)
+ * @see BuildContext#registerInputSpecs(Collection)
+ */
+public final class InputSpec implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final File basedir;
+
+  private final List<String> includes;
+
+  private final List<String> excludes;
+
+  /**
+   * @param basedir is the base directory to look for inputs, must not be {@code null}
+   * @param includes patterns of the files to register, can be {@code null}
+   * @param excludes patterns of the files to ignore, can be {@code null}
+   */
+  public InputSpec(File basedir, Collection<String> includes, Collection<String> excludes) {
+    if (basedir == null) {
+      throw new IllegalArgumentException();
+    }
+    this.basedir = basedir;
+    this.includes = copy(includes);
+    this.excludes = copy(excludes);
+  }
+
+  private static List<String> copy(Collection<String> patterns) {
+    return patterns != null
+        ? Collections.unmodifiableList(new ArrayList<String>(patterns))
+        : null;
+  }
+
+  public File getBasedir() {
+    return basedir;
+  }
+
+  /**
+   * @return include patterns or {@code null}
+   */
+  public Collection<String> getIncludes() {
+    return includes;
+  }
+
+  /**
+   * @return exclude patterns or {@code null}
+   */
+  public Collection<String> getExcludes() {
+    return excludes;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 31;
+    hash = hash * 17 + basedir.hashCode();
+    hash = hash * 17 + Objects.hashCode(includes);
+    hash = hash * 17 + Objects.hashCode(excludes);
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof InputSpec)) {
+      return false;
+    }
+    InputSpec other = (InputSpec) obj;
+    return basedir.equals(other.basedir) && Objects.equals(includes, other.includes)
+        && Objects.equals(excludes, other.excludes);
+  }
+
+  @Override
+  public String toString() {
+    return basedir + " includes=" + includes + " excludes=" + excludes;
+  }
+}
@@ -0,0 +1,16 @@
+package io.takari.incrementalbuild;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Callback used to process inputs as soon as build context selects them for processing.
+ */
+public interface ResourceProcessor {
+
+  /**
+   * Processes the input. Called once for each new or modified input.
+   */
+  public void process(Resource<File> input) throws IOException;
+
+}
@@ -1,5 +1,7 @@
 package io.takari.incrementalbuild.aggregator;
 
+import java.io.File;
+import java.util.Collection;
 
 /**
  * Convenience interface to create aggregate outputs
@@ -29,4 +31,11 @@ public interface AggregatorBuildContext {
 
   public InputSet newInputSet(boolean createOutputIfEmpty);
 
+  /**
+   * Returns aggregate outputs whose contents were created or changed during this build.
+   * 
+   * @see io.takari.incrementalbuild.BuildContext#getModifiedOutputs()
+   */
+  public Collection<File> getModifiedOutputs();
+
 }
@@ -4,6 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Map;
+
+import io.takari.incrementalbuild.InputSpec;
 
 /**
  * Represents input set being aggregated.
@@ -11,9 +14,25 @@ import java.util.Collection;
 public interface InputSet {
   public File addInput(File inputFile) throws IOException;
 
+  /**
+   * Adds specified input files. Equivalent to calling {@link #addInput(File)} for each file, but
+   * files are canonicalized and their attributes read in parallel.
+   *
+   * @returns added inputs, in the order of {@code inputFiles}
+   */
+  public Iterable<File> addInputs(Collection<File> inputFiles) throws IOException;
+
   public Iterable<File> addInputs(File basedir, Collection<String> includes,
       Collection<String> excludes) throws IOException;
 
+  /**
+   * Adds inputs identified by multiple {@link InputSpec}s, walking each directory only once.
+   *
+   * @returns added inputs grouped by spec, in the order of {@code specs}
+   */
+  public Map<InputSpec, ? extends Iterable<File>> addInputSpecs(Collection<InputSpec> specs)
+      throws IOException;
+
   public boolean aggregateIfNecessary(File outputFile, InputAggregator aggregator)
       throws IOException;
 
@@ -4,12 +4,15 @@ package io.takari.incrementalbuild.aggregator.internal;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import io.takari.incrementalbuild.InputSpec;
 import io.takari.incrementalbuild.ResourceStatus;
 import io.takari.incrementalbuild.aggregator.AggregatorBuildContext;
 import io.takari.incrementalbuild.aggregator.InputAggregator;
@@ -61,6 +64,12 @@ public class DefaultAggregatorBuildContext extends AbstractBuildContext
     return super.registerInput(inputFile);
   }
 
+  @Override
+  public List<DefaultResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException {
+    return super.registerInputs(inputFiles);
+  }
+
   private Map<String, Serializable> glean(Collection<File> inputs,
       MetadataAggregator<? extends Serializable> gleaner) throws IOException {
     String attributeKey = attributeKey(gleaner);
@@ -104,7 +113,6 @@ public class DefaultAggregatorBuildContext extends AbstractBuildContext
     }
     if (processingRequired) {
       markProcessedResource(outputFile);
-      workspace.processOutput(outputFile);
       DefaultOutput output = newOutput(outputFile);
       for (File inputFile : inputs) {
         if (!isProcessedResource(inputFile)) {
@@ -156,7 +164,6 @@ public class DefaultAggregatorBuildContext extends AbstractBuildContext
     }
     if (processingRequired) {
       markProcessedResource(outputFile);
-      workspace.processOutput(outputFile);
       DefaultOutput output = newOutput(outputFile);
       aggregate(aggregator, output, metadata);
     } else {
@@ -180,18 +187,20 @@ public class DefaultAggregatorBuildContext extends AbstractBuildContext
 
   @Override
   protected void finalizeContext() throws IOException {
+    List<File> obsoleteOutputs = new ArrayList<>();
     for (File oldOutput : oldState.getOutputs()) {
       if (isProcessedResource(oldOutput)) {
         // processed during this build
       } else if (state.getResource(oldOutput) == null) {
         // registered but neither processed nor marked as up-to-date
-        deleteOutput(oldOutput);
+        obsoleteOutputs.add(oldOutput);
       } else {
         // up-to-date
         state.setResourceMessages(oldOutput, oldState.getResourceMessages(oldOutput));
         state.setResourceAttributes(oldOutput, oldState.getResourceAttributes(oldOutput));
       }
     }
+    deleteOutputs(obsoleteOutputs);
   }
 
   private Collection<Object> getOutputInputs(DefaultBuildContextState state, File outputFile) {
@@ -204,4 +213,15 @@ public class DefaultAggregatorBuildContext extends AbstractBuildContext
       Collection<String> includes, Collection<String> excludes) throws IOException {
     return super.registerInputs(basedir, includes, excludes);
   }
+
+  @Override
+  public Map<InputSpec, Collection<DefaultResourceMetadata<File>>> registerInputSpecs(
+      Collection<InputSpec> specs) throws IOException {
+    return super.registerInputSpecs(specs);
+  }
+
+  @Override
+  public Collection<File> getModifiedOutputs() {
+    return super.getModifiedOutputs();
+  }
 }
@@ -3,14 +3,20 @@ package io.takari.incrementalbuild.aggregator.internal;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import io.takari.incrementalbuild.InputSpec;
 import io.takari.incrementalbuild.ResourceMetadata;
 import io.takari.incrementalbuild.aggregator.InputAggregator;
 import io.takari.incrementalbuild.aggregator.InputSet;
 import io.takari.incrementalbuild.aggregator.MetadataAggregator;
+import io.takari.incrementalbuild.spi.DefaultResourceMetadata;
 
 public class DefaultInputSet implements InputSet {
 
@@ -43,6 +49,31 @@ public class DefaultInputSet implements InputSet {
     return inputs;
   }
 
+  @Override
+  public List<File> addInputs(Collection<File> inputFiles) throws IOException {
+    List<File> inputs = new ArrayList<>(inputFiles.size());
+    for (ResourceMetadata<File> inputMetadata : context.registerInputs(inputFiles)) {
+      this.inputs.add(inputMetadata.getResource());
+      inputs.add(inputMetadata.getResource());
+    }
+    return inputs;
+  }
+
+  @Override
+  public Map<InputSpec, Set<File>> addInputSpecs(Collection<InputSpec> specs) throws IOException {
+    Map<InputSpec, Set<File>> result = new LinkedHashMap<>();
+    for (Map.Entry<InputSpec, Collection<DefaultResourceMetadata<File>>> entry : context
+        .registerInputSpecs(specs).entrySet()) {
+      Set<File> inputs = new LinkedHashSet<>();
+      for (ResourceMetadata<File> inputMetadata : entry.getValue()) {
+        this.inputs.add(inputMetadata.getResource());
+        inputs.add(inputMetadata.getResource());
+      }
+      result.put(entry.getKey(), inputs);
+    }
+    return result;
+  }
+
   @Override
   public boolean aggregateIfNecessary(File outputFile, InputAggregator aggregator)
       throws IOException {
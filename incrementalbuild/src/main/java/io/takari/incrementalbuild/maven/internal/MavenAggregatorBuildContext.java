@@ -5,6 +5,9 @@ import io.takari.incrementalbuild.aggregator.InputSet;
 import io.takari.incrementalbuild.aggregator.internal.DefaultAggregatorBuildContext;
 import io.takari.incrementalbuild.spi.BuildContextEnvironment;
 
+import java.io.File;
+import java.util.Collection;
+
 import javax.enterprise.inject.Typed;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -43,4 +46,8 @@ public class MavenAggregatorBuildContext implements AggregatorBuildContext {
     return provider.get().newInputSet(createOutputIfEmpty);
   }
 
+  @Override
+  public Collection<File> getModifiedOutputs() {
+    return provider.get().getModifiedOutputs();
+  }
 }
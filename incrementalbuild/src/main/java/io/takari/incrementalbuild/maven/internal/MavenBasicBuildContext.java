@@ -7,6 +7,8 @@ import io.takari.incrementalbuild.spi.BuildContextEnvironment;
 import io.takari.incrementalbuild.spi.DefaultBasicBuildContext;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
 
 import javax.enterprise.inject.Typed;
 import javax.inject.Inject;
@@ -40,6 +42,12 @@ public class MavenBasicBuildContext implements BasicBuildContext {
     return provider.get().registerInput(inputFile);
   }
 
+  @Override
+  public Iterable<? extends ResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException {
+    return provider.get().registerInputs(inputFiles);
+  }
+
   @Override
   public boolean isProcessingRequired() {
     return provider.get().isProcessingRequired();
@@ -50,4 +58,8 @@ public class MavenBasicBuildContext implements BasicBuildContext {
     return provider.get().processOutput(outputFile);
   }
 
+  @Override
+  public Collection<File> getModifiedOutputs() {
+    return provider.get().getModifiedOutputs();
+  }
 }
@@ -1,7 +1,9 @@
 package io.takari.incrementalbuild.maven.internal;
 
 import io.takari.incrementalbuild.BuildContext;
+import io.takari.incrementalbuild.InputSpec;
 import io.takari.incrementalbuild.Resource;
+import io.takari.incrementalbuild.ResourceProcessor;
 import io.takari.incrementalbuild.ResourceMetadata;
 import io.takari.incrementalbuild.spi.BuildContextEnvironment;
 import io.takari.incrementalbuild.spi.DefaultBuildContext;
@@ -9,6 +11,7 @@ import io.takari.incrementalbuild.spi.DefaultBuildContext;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
 
 import javax.enterprise.inject.Typed;
 import javax.inject.Inject;
@@ -42,20 +45,49 @@ public class MavenBuildContext implements BuildContext {
     return provider.get().registerInput(inputFile);
   }
 
+  @Override
+  public Iterable<? extends ResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException {
+    return provider.get().registerInputs(inputFiles);
+  }
+
   @Override
   public Iterable<? extends ResourceMetadata<File>> registerInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException {
     return provider.get().registerInputs(basedir, includes, excludes);
   }
 
+  @Override
+  public Map<InputSpec, ? extends Iterable<? extends ResourceMetadata<File>>> registerInputSpecs(
+      Collection<InputSpec> specs) throws IOException {
+    return provider.get().registerInputSpecs(specs);
+  }
+
   @Override
   public Iterable<? extends Resource<File>> registerAndProcessInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException {
     return provider.get().registerAndProcessInputs(basedir, includes, excludes);
   }
 
+  @Override
+  public void registerAndProcessInputs(File basedir, Collection<String> includes,
+      Collection<String> excludes, ResourceProcessor processor) throws IOException {
+    provider.get().registerAndProcessInputs(basedir, includes, excludes, processor);
+  }
+
+  @Override
+  public void processInputsInParallel(File basedir, Collection<String> includes,
+      Collection<String> excludes, ResourceProcessor processor) throws IOException {
+    provider.get().processInputsInParallel(basedir, includes, excludes, processor);
+  }
+
   @Override
   public void markSkipExecution() {
     provider.get().markSkipExecution();
   }
+
+  @Override
+  public Collection<File> getModifiedOutputs() {
+    return provider.get().getModifiedOutputs();
+  }
 }
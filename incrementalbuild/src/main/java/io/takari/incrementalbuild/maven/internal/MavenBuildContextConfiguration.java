@@ -3,6 +3,7 @@ package io.takari.incrementalbuild.maven.internal;
 import io.takari.incrementalbuild.maven.internal.digest.MojoConfigurationDigester;
 import io.takari.incrementalbuild.spi.BuildContextEnvironment;
 import io.takari.incrementalbuild.spi.BuildContextFinalizer;
+import io.takari.incrementalbuild.spi.StatePrefetcher;
 import io.takari.incrementalbuild.workspace.Workspace;
 
 import java.io.File;
@@ -14,6 +15,8 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.maven.execution.scope.MojoExecutionScoped;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.project.MavenProject;
 
 // TODO merge with MavenIncrementalConventions, not sure we need both
 
@@ -21,18 +24,36 @@ import org.apache.maven.execution.scope.MojoExecutionScoped;
 @MojoExecutionScoped
 public class MavenBuildContextConfiguration implements BuildContextEnvironment {
 
+  private static final String KEY_PREFETCHED = MavenBuildContextConfiguration.class.getName()
+      + ".prefetched";
+
   private final ProjectWorkspace workspace;
   private final File stateFile;
   private final Map<String, Serializable> parameters;
   private final MavenBuildContextFinalizer finalizer;
 
   @Inject
-  public MavenBuildContextConfiguration(ProjectWorkspace workspace,
-      MavenIncrementalConventions conventions, MojoConfigurationDigester digester,
-      MavenBuildContextFinalizer finalizer) throws IOException {
+  public MavenBuildContextConfiguration(MavenProject project, ProjectWorkspace workspace,
+      MojoExecution execution, MavenIncrementalConventions conventions,
+      MojoConfigurationDigester digester, MavenBuildContextFinalizer finalizer) throws IOException {
     this.workspace = workspace;
     this.finalizer = finalizer;
     this.stateFile = conventions.getExecutionStateLocation();
+
+    // previous build state is loaded while mojo configuration is digested, the two are joined
+    // when the build context compares configuration
+    StatePrefetcher.prefetch(project, stateFile);
+    String pluginId = conventions.getPluginId(execution);
+    String key = KEY_PREFETCHED + "." + pluginId;
+    if (project.getContextValue(key) == null) {
+      // first incremental execution of the plugin in the project, other executions will likely
+      // follow. only states of the same plugin are prefetched, states of other plugins are loaded
+      // by different class loaders
+      project.setContextValue(key, Boolean.TRUE);
+      StatePrefetcher.prefetchAll(project, conventions.getProjectStateLocation(project),
+          pluginId + "_");
+    }
+
     this.parameters = digester.digest();
   }
 
@@ -13,6 +13,14 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -27,6 +35,25 @@ import org.apache.maven.plugin.MojoExecutionException;
 @MojoExecutionScoped
 public class MavenBuildContextFinalizer implements WeakMojoExecutionListener, BuildContextFinalizer {
 
+  static final int COMMIT_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(COMMIT_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "incrementalbuild-commit-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
   @Inject
   @Nullable
   private MessageSink messageSink;
@@ -74,8 +101,12 @@ public class MavenBuildContextFinalizer implements WeakMojoExecutionListener, Bu
     };
 
     try {
-      for (AbstractBuildContext context : contexts) {
-        context.commit(messager);
+      if (contexts.size() > 1 && isConcurrentCommitSupported()) {
+        commitConcurrently(messager);
+      } else {
+        for (AbstractBuildContext context : contexts) {
+          context.commit(messager);
+        }
       }
 
       if (messageSink == null) {
@@ -86,6 +117,134 @@ public class MavenBuildContextFinalizer implements WeakMojoExecutionListener, Bu
     }
   }
 
+  private boolean isConcurrentCommitSupported() {
+    for (AbstractBuildContext context : contexts) {
+      if (!context.isConcurrentCommitSupported()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Commits all contexts concurrently on a shared pool of daemon threads. Messager calls and
+   * messages logged by the commits are recorded per context and replayed in context registration
+   * order once all commits complete, so the outcome is the same as if the contexts were committed
+   * one after another. If any commit fails, commits of contexts registered after the failed context
+   * that did not start yet are skipped, messages of the contexts registered before the first failed
+   * context are replayed and the failure is rethrown, with failures of later contexts attached as
+   * suppressed exceptions.
+   */
+  private void commitConcurrently(MessageSinkAdaptor messager) throws IOException {
+    // registration index of the first context that failed to commit
+    final AtomicInteger failedIndex = new AtomicInteger(Integer.MAX_VALUE);
+    List<RecordingMessager> messagers = new ArrayList<>();
+    List<Future<Runnable>> futures = new ArrayList<>();
+    for (final AbstractBuildContext context : contexts) {
+      final int index = futures.size();
+      final RecordingMessager recorder = new RecordingMessager();
+      messagers.add(recorder);
+      Callable<Runnable> commit = new Callable<Runnable>() {
+        @Override
+        public Runnable call() throws IOException {
+          if (failedIndex.get() < index) {
+            return null; // an earlier context failed, skip the commit like sequential commit does
+          }
+          try {
+            return context.commitDeferLogging(recorder);
+          } catch (IOException | RuntimeException | Error e) {
+            int failed;
+            while ((failed = failedIndex.get()) > index
+                && !failedIndex.compareAndSet(failed, index)) {
+              // retry
+            }
+            throw e;
+          }
+        }
+      };
+      if (index < contexts.size() - 1) {
+        futures.add(getExecutor().submit(commit));
+      } else {
+        // the last context is committed on the calling thread
+        FutureTask<Runnable> task = new FutureTask<>(commit);
+        task.run();
+        futures.add(task);
+      }
+    }
+
+    // wait for all commits, so no context writes state or outputs after this method returns
+    Throwable failure = null;
+    boolean interrupted = false;
+    for (int i = 0; i < futures.size(); i++) {
+      Runnable logging = null;
+      while (true) {
+        try {
+          logging = futures.get(i).get();
+          break;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          } else {
+            failure.addSuppressed(e.getCause());
+          }
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (failure == null) {
+        logging.run();
+        messagers.get(i).replay(messager);
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IOException(failure);
+    }
+  }
+
+  /**
+   * Records messager calls made by a context commit, to be replayed later.
+   */
+  private static class RecordingMessager implements MessageSinkAdaptor {
+    private final List<Object> cleared = new ArrayList<>();
+
+    private final List<Map<Object, Collection<Message>>> allMessages = new ArrayList<>();
+
+    private final List<Map<Object, Collection<Message>>> newMessages = new ArrayList<>();
+
+    @Override
+    public void clear(Object resource) {
+      cleared.add(resource);
+    }
+
+    @Override
+    public void record(Map<Object, Collection<Message>> allMessages,
+        Map<Object, Collection<Message>> newMessages) {
+      this.allMessages.add(allMessages);
+      this.newMessages.add(newMessages);
+    }
+
+    public void replay(MessageSinkAdaptor messager) {
+      // commit clears old messages before recording new messages
+      for (Object resource : cleared) {
+        messager.clear(resource);
+      }
+      for (int i = 0; i < allMessages.size(); i++) {
+        messager.record(allMessages.get(i), newMessages.get(i));
+      }
+    }
+  }
+
   protected void failBuild(final Map<Object, Collection<Message>> messages)
       throws MojoExecutionException {
     // without messageSink, have to raise exception if there were errors
@@ -40,15 +40,21 @@ public class MavenIncrementalConventions {
    * Returns conventional MojoExecution identifier used by incremental build tools.
    */
   public String getExecutionId(MojoExecution execution) {
-    PluginDescriptor pluginDescriptor = execution.getMojoDescriptor().getPluginDescriptor();
-    StringBuilder builderId = new StringBuilder();
-    builderId.append(pluginDescriptor.getGroupId()).append('_')
-        .append(pluginDescriptor.getArtifactId());
+    StringBuilder builderId = new StringBuilder(getPluginId(execution));
     builderId.append('_').append(execution.getGoal()).append('_')
         .append(execution.getExecutionId());
     return builderId.toString();
   }
 
+  /**
+   * Returns conventional identifier of the MojoExecution plugin, which is the prefix of
+   * {@link #getExecutionId(MojoExecution)} of all executions of the plugin.
+   */
+  public String getPluginId(MojoExecution execution) {
+    PluginDescriptor pluginDescriptor = execution.getMojoDescriptor().getPluginDescriptor();
+    return pluginDescriptor.getGroupId() + '_' + pluginDescriptor.getArtifactId();
+  }
+
   /**
    * Returns conventional location of MavenProject incremental build state
    */
@@ -0,0 +1,90 @@
+package io.takari.incrementalbuild.maven.internal;
+
+import io.takari.incrementalbuild.maven.internal.digest.MojoConfigurationDigester;
+import io.takari.incrementalbuild.spi.DefaultBuildContextState;
+import io.takari.incrementalbuild.workspace.Workspace;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.maven.execution.MojoExecutionEvent;
+import org.apache.maven.execution.scope.MojoExecutionScoped;
+import org.apache.maven.execution.scope.WeakMojoExecutionListener;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks if incremental build state of the mojo execution is up-to-date before the mojo is
+ * executed. Mojos opt in by injecting this component and returning from {@code execute()} without
+ * doing anything when {@link #isUpToDate()} returns {@code true}. Incremental build state of the
+ * execution is left as-is, same as with {@code BuildContext#markSkipExecution()}.
+ * <p>
+ * The execution is up-to-date if its configuration did not change, all inputs and outputs of the
+ * previous build are unchanged, no matching files were added under basedirs of input patterns used
+ * by the previous build and the previous build did not report any errors. Inputs registered
+ * individually are only checked for changes, mojos that look for inputs elsewhere should not use
+ * this check.
+ * <p>
+ * The check only reads the summary at the beginning of the state file, the rest of the state is
+ * read once by the build context if the mojo is not up-to-date. Mojo execution listeners are
+ * notified after the mojo is created and configured, so only the work done by {@code execute()} is
+ * skipped.
+ */
+@Named
+@MojoExecutionScoped
+public class MojoExecutionUpToDateCheck implements WeakMojoExecutionListener {
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final ProjectWorkspace workspace;
+
+  private final File stateFile;
+
+  private final MojoConfigurationDigester digester;
+
+  private boolean upToDate;
+
+  @Inject
+  public MojoExecutionUpToDateCheck(ProjectWorkspace workspace,
+      MavenIncrementalConventions conventions, MojoConfigurationDigester digester) {
+    this.workspace = workspace;
+    this.stateFile = conventions.getExecutionStateLocation();
+    this.digester = digester;
+  }
+
+  /**
+   * Returns {@code true} if the mojo execution is up-to-date and can be skipped.
+   */
+  public boolean isUpToDate() {
+    return upToDate;
+  }
+
+  @Override
+  public void beforeMojoExecution(MojoExecutionEvent event) throws MojoExecutionException {
+    if (workspace.getMode() != Workspace.Mode.NORMAL) {
+      // workspace requests full or delta build
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      upToDate = DefaultBuildContextState.isUpToDate(workspace, stateFile, digester.digest());
+    } catch (IOException e) {
+      throw new MojoExecutionException("Could not check incremental build state " + stateFile, e);
+    }
+    if (upToDate) {
+      log.info("Skipping up-to-date mojo execution, incremental build state {}", stateFile);
+    }
+    log.debug("Checked incremental build state {} ({} ms)", stateFile,
+        System.currentTimeMillis() - start);
+  }
+
+  @Override
+  public void afterMojoExecutionSuccess(MojoExecutionEvent event) throws MojoExecutionException {}
+
+  @Override
+  public void afterExecutionFailure(MojoExecutionEvent event) {}
+}
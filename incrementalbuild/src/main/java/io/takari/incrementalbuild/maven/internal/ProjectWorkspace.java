@@ -1,11 +1,15 @@
 package io.takari.incrementalbuild.maven.internal;
 
+import io.takari.incrementalbuild.spi.ExtendedWorkspace;
 import io.takari.incrementalbuild.workspace.Workspace;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import javax.enterprise.inject.Typed;
 import javax.inject.Inject;
@@ -21,7 +25,7 @@ import org.apache.maven.project.MavenProject;
  */
 @Typed(ProjectWorkspace.class)
 @MojoExecutionScoped
-public class ProjectWorkspace implements Workspace {
+public class ProjectWorkspace implements ExtendedWorkspace {
 
   private final Workspace workspace;
 
@@ -31,21 +35,35 @@ public class ProjectWorkspace implements Workspace {
 
   private final Path basedir;
 
+  private final String basepath;
+
   @Inject
   public ProjectWorkspace(MavenProject project, Workspace workspace, FilesystemWorkspace filesystem) {
     this.project = project;
     this.basedir = project.getBasedir().toPath().normalize();
+    this.basepath = basedir.toString();
     this.workspace = workspace;
     this.filesystem = filesystem;
   }
 
   protected Workspace getWorkspace(File file) {
-    if (file.toPath().normalize().startsWith(basedir)) {
+    if (isUnderBasedir(file)) {
       return workspace;
     }
     return filesystem;
   }
 
+  private boolean isUnderBasedir(File file) {
+    final String path = file.getPath();
+    if (File.separatorChar == '/' && file.isAbsolute() && !path.contains("/.")) {
+      // build context passes canonical files, which can be matched as strings without creating and
+      // normalizing Path instances. paths that may include "." or ".." segments take the slow path
+      return path.startsWith(basepath) && (path.length() == basepath.length()
+          || basepath.endsWith(File.separator) || path.charAt(basepath.length()) == '/');
+    }
+    return file.toPath().normalize().startsWith(basedir);
+  }
+
   @Override
   public Mode getMode() {
     return workspace.getMode();
@@ -66,16 +84,74 @@ public class ProjectWorkspace implements Workspace {
     getWorkspace(file).deleteFile(file);
   }
 
+  @Override
+  public void deleteFiles(Collection<File> files) throws IOException {
+    List<File> project = new ArrayList<>();
+    List<File> other = new ArrayList<>();
+    for (File file : files) {
+      (isUnderBasedir(file) ? project : other).add(file);
+    }
+    if (!project.isEmpty()) {
+      deleteFiles(getWorkspace(project.get(0)), project);
+    }
+    if (!other.isEmpty()) {
+      deleteFiles(getWorkspace(other.get(0)), other);
+    }
+  }
+
+  private static void deleteFiles(Workspace workspace, Collection<File> files)
+      throws IOException {
+    if (workspace instanceof ExtendedWorkspace) {
+      ((ExtendedWorkspace) workspace).deleteFiles(files);
+    } else {
+      for (File file : files) {
+        workspace.deleteFile(file);
+      }
+    }
+  }
+
   @Override
   public void processOutput(File file) {
     getWorkspace(file).processOutput(file);
   }
 
+  @Override
+  public void processOutputs(Collection<File> files) {
+    List<File> project = new ArrayList<>();
+    List<File> other = new ArrayList<>();
+    for (File file : files) {
+      (isUnderBasedir(file) ? project : other).add(file);
+    }
+    if (!project.isEmpty()) {
+      processOutputs(getWorkspace(project.get(0)), project);
+    }
+    if (!other.isEmpty()) {
+      processOutputs(getWorkspace(other.get(0)), other);
+    }
+  }
+
+  private static void processOutputs(Workspace workspace, Collection<File> files) {
+    if (workspace instanceof ExtendedWorkspace) {
+      ((ExtendedWorkspace) workspace).processOutputs(files);
+    } else {
+      for (File file : files) {
+        workspace.processOutput(file);
+      }
+    }
+  }
+
   @Override
   public OutputStream newOutputStream(File file) throws IOException {
     return getWorkspace(file).newOutputStream(file);
   }
 
+  @Override
+  public boolean isFilesystem(File file) {
+    Workspace workspace = getWorkspace(file);
+    return workspace instanceof ExtendedWorkspace
+        && ((ExtendedWorkspace) workspace).isFilesystem(file);
+  }
+
   @Override
   public ResourceStatus getResourceStatus(File file, long lastModified, long length) {
     return getWorkspace(file).getResourceStatus(file, lastModified, length);
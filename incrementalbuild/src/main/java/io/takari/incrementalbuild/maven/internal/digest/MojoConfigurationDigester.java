@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,8 @@ public class MojoConfigurationDigester {
   private final MavenProject project;
   private final MojoExecution execution;
 
+  // mojo configuration does not change during mojo execution, the digest is computed once
+  private Map<String, Serializable> digest;
 
   @Inject
   public MojoConfigurationDigester(MavenSession session, MavenProject project,
@@ -46,7 +49,14 @@ public class MojoConfigurationDigester {
     this.classpathDigester = new ClasspathDigester(session);
   }
 
-  public Map<String, Serializable> digest() throws IOException {
+  public synchronized Map<String, Serializable> digest() throws IOException {
+    if (digest == null) {
+      digest = Collections.unmodifiableMap(digestConfiguration());
+    }
+    return digest;
+  }
+
+  private Map<String, Serializable> digestConfiguration() throws IOException {
     Map<String, Serializable> result = new LinkedHashMap<String, Serializable>();
 
     List<Artifact> classpath = execution.getMojoDescriptor().getPluginDescriptor().getArtifacts();
@@ -21,19 +21,21 @@ public class IncrementalBuildLog {
 
   private final Map<File, List<String>> resourceMessages = new HashMap<File, List<String>>();
 
-  void addRegisterOutput(File outputFile) {
+  // build contexts of the same mojo execution may be committed concurrently
+
+  synchronized void addRegisterOutput(File outputFile) {
     registeredOutputs.add(outputFile);
   }
 
-  void addDeletedOutput(File outputFile) {
+  synchronized void addDeletedOutput(File outputFile) {
     deletedOutputs.add(outputFile);
   }
 
-  void addCarryoverOutput(File outputFile) {
+  synchronized void addCarryoverOutput(File outputFile) {
     carriedOverOutputs.add(outputFile);
   }
 
-  void message(Object resource, int line, int column, String message, Severity severity,
+  synchronized void message(Object resource, int line, int column, String message, Severity severity,
       Throwable cause) {
 
     if (!(resource instanceof File)) {
@@ -36,6 +36,14 @@ class TestBuildContextFinalizer extends MavenBuildContextFinalizer {
       for (AbstractBuildContext context : getRegisteredContexts()) {
         DefaultBuildContextState state = context.getState();
 
+        // outputs processed during this build, including outputs rewritten with the same contents,
+        // which are not reported to the workspace
+        for (File output : state.getOutputs()) {
+          if (context.isProcessedOutput(output) && !log.getRegisteredOutputs().contains(output)) {
+            log.addRegisterOutput(output);
+          }
+        }
+
         // carried over outputs
         for (File output : state.getOutputs()) {
           // if not processed during this build it must have been carried over
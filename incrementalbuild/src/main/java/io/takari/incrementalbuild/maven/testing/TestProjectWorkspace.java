@@ -2,11 +2,13 @@ package io.takari.incrementalbuild.maven.testing;
 
 import io.takari.incrementalbuild.maven.internal.FilesystemWorkspace;
 import io.takari.incrementalbuild.maven.internal.ProjectWorkspace;
+import io.takari.incrementalbuild.spi.ExtendedWorkspace;
 import io.takari.incrementalbuild.workspace.Workspace;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 
 import javax.inject.Inject;
 
@@ -17,7 +19,7 @@ class TestProjectWorkspace extends ProjectWorkspace implements Workspace {
 
   private final IncrementalBuildLog log;
 
-  private class ForwardingWorkspace implements Workspace {
+  private class ForwardingWorkspace implements ExtendedWorkspace {
 
     private final Workspace workspace;
 
@@ -47,6 +49,21 @@ class TestProjectWorkspace extends ProjectWorkspace implements Workspace {
       workspace.deleteFile(file);
     }
 
+    @Override
+    public void deleteFiles(Collection<File> files) throws IOException {
+      for (File file : files) {
+        log.addDeletedOutput(file);
+      }
+
+      if (workspace instanceof ExtendedWorkspace) {
+        ((ExtendedWorkspace) workspace).deleteFiles(files);
+      } else {
+        for (File file : files) {
+          workspace.deleteFile(file);
+        }
+      }
+    }
+
     @Override
     public void processOutput(File file) {
       log.addRegisterOutput(file);
@@ -54,11 +71,32 @@ class TestProjectWorkspace extends ProjectWorkspace implements Workspace {
       workspace.processOutput(file);
     }
 
+    @Override
+    public void processOutputs(Collection<File> files) {
+      for (File file : files) {
+        log.addRegisterOutput(file);
+      }
+
+      if (workspace instanceof ExtendedWorkspace) {
+        ((ExtendedWorkspace) workspace).processOutputs(files);
+      } else {
+        for (File file : files) {
+          workspace.processOutput(file);
+        }
+      }
+    }
+
     @Override
     public OutputStream newOutputStream(File file) throws IOException {
       return workspace.newOutputStream(file);
     }
 
+    @Override
+    public boolean isFilesystem(File file) {
+      return workspace instanceof ExtendedWorkspace
+          && ((ExtendedWorkspace) workspace).isFilesystem(file);
+    }
+
     @Override
     public ResourceStatus getResourceStatus(File file, long lastModified, long length) {
       return workspace.getResourceStatus(file, lastModified, length);
@@ -85,6 +123,15 @@ class TestProjectWorkspace extends ProjectWorkspace implements Workspace {
     super.processOutput(file);
   }
 
+  @Override
+  public void processOutputs(Collection<File> files) {
+    for (File file : files) {
+      log.addRegisterOutput(file);
+    }
+
+    super.processOutputs(files);
+  }
+
 
   @Override
   public void deleteFile(File file) throws IOException {
@@ -93,6 +140,15 @@ class TestProjectWorkspace extends ProjectWorkspace implements Workspace {
     super.deleteFile(file);
   }
 
+  @Override
+  public void deleteFiles(Collection<File> files) throws IOException {
+    for (File file : files) {
+      log.addDeletedOutput(file);
+    }
+
+    super.deleteFiles(files);
+  }
+
   @Override
   public Workspace escalate() {
     return new ForwardingWorkspace(super.escalate());
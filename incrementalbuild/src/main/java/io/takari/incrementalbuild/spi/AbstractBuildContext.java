@@ -4,21 +4,33 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.takari.incrementalbuild.InputSpec;
 import io.takari.incrementalbuild.MessageSeverity;
+import io.takari.incrementalbuild.Resource;
+import io.takari.incrementalbuild.ResourceProcessor;
 import io.takari.incrementalbuild.ResourceMetadata;
 import io.takari.incrementalbuild.ResourceStatus;
 import io.takari.incrementalbuild.workspace.Workspace;
@@ -27,8 +39,53 @@ import io.takari.incrementalbuild.workspace.Workspace.Mode;
 
 /**
  * Tracks build input and output resources and associations among them.
+ * <p>
+ * Registration and processing of resources can be done concurrently by multiple threads, see
+ * {@link io.takari.incrementalbuild.BuildContext} for the exact contract. Build state is guarded by
+ * the {@link DefaultBuildContextState} monitor, which is held for in-memory bookkeeping only, file
+ * system access and output digesting are done outside of it.
  */
 public abstract class AbstractBuildContext {
+  /**
+   * System property that enables pruning of empty output directories. When set to {@code true},
+   * directories left empty after deletion of obsolete outputs are deleted too, see
+   * {@link #pruneEmptyDirectories(Collection)} for the directories that are never deleted.
+   */
+  static final String PRUNE_EMPTY_DIRECTORIES = "incrementalbuild.pruneEmptyDirectories";
+
+  /**
+   * System property that enables asynchronous output writes. When set to {@code true}, filesystem
+   * outputs are written on background I/O threads, output streams return from {@code close()}
+   * immediately and {@link #commit(MessageSinkAdaptor)} waits for all pending writes and fails if
+   * any of them failed.
+   */
+  static final String ASYNC_OUTPUTS = "incrementalbuild.asyncOutputs";
+
+  /**
+   * System property that enables staged outputs. When set to {@code true}, changed filesystem
+   * outputs are written to a staging directory next to the build state file and moved in place by
+   * {@link #commit(MessageSinkAdaptor)}. If the build fails before commit, outputs and state of the
+   * previous build remain valid and the next build can still be incremental.
+   */
+  static final String STAGED_OUTPUTS = "incrementalbuild.stagedOutputs";
+
+  /**
+   * System property that sets the number of threads used by
+   * {@link #processInputsInParallel(File, Collection, Collection, ResourceProcessor)}. Defaults to
+   * the number of available processors.
+   */
+  static final String PROCESSING_THREADS = "incrementalbuild.processingThreads";
+
+  private static final Runnable NO_LOGGING = new Runnable() {
+    @Override
+    public void run() {}
+  };
+
+  /**
+   * Minimal number of unprocessed inputs checked with {@link InputVerification#SAMPLED}.
+   */
+  private static final int VERIFICATION_SAMPLE_SIZE = 64;
+
   protected final Logger log = LoggerFactory.getLogger(getClass());
 
   protected final Workspace workspace;
@@ -48,19 +105,73 @@ public abstract class AbstractBuildContext {
   /**
    * Indicates that no further modifications to this build context are allowed.
    */
-  private boolean closed;
+  private volatile boolean closed;
 
   /**
    * Resources known to be deleted since previous build. Includes both resources reported as deleted
    * by Workspace and resources explicitly delete through this build context.
    */
-  private final Set<File> deletedResources = new HashSet<>();
+  private final Set<File> deletedResources =
+      Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
 
   /**
    * Resources selected for processing during this build. This includes resources created, changed
    * and deleted through this build context.
    */
-  private final Set<Object> processedResources = new HashSet<>();
+  private final Set<Object> processedResources =
+      Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+  private final CanonicalFiles canonicalFiles = new CanonicalFiles();
+
+  /**
+   * State of outputs written through this build context as of the time their output streams were
+   * closed. Used to record output digests in the build state.
+   */
+  private final Map<File, FileState> writtenOutputs = new ConcurrentHashMap<>();
+
+  /**
+   * Pending asynchronous output writes, {@code null} unless asynchronous outputs are enabled.
+   */
+  private final AsyncOutputs asyncOutputs;
+
+  /**
+   * Asynchronous output write failures not yet reported to the caller.
+   */
+  private IOException asyncFailure;
+
+  /**
+   * Directory changed outputs are written to before commit, {@code null} unless staged outputs are
+   * enabled.
+   */
+  private final File stagingDirectory;
+
+  /**
+   * Directory output streams spill large contents to, {@code null} if contents are spilled next to
+   * the outputs. Keeps temporary files of streams that are never closed, for example because the
+   * build failed, out of output directories.
+   */
+  private final File spillDirectory;
+
+  /**
+   * {@code true} if an output stream spilled contents to {@link #spillDirectory} during this build.
+   * Guarded by this context monitor.
+   */
+  private boolean spilled;
+
+  private final InputVerification inputVerification;
+
+  private final boolean pruneEmptyDirectories;
+
+  /**
+   * Maps outputs to their location in the staging directory. Guarded by this context monitor,
+   * together with {@link #stagedOutputs}.
+   */
+  private final Map<File, File> stagedFiles = new HashMap<>();
+
+  /**
+   * Digests of outputs with changed contents in the staging directory, in the order written.
+   */
+  private final Map<File, byte[]> stagedOutputs = new LinkedHashMap<>();
 
   protected AbstractBuildContext(BuildContextEnvironment env) {
     this(env.getWorkspace(), env.getStateFile(), env.getParameters(), env.getFinalizer());
@@ -106,6 +217,38 @@ public abstract class AbstractBuildContext {
       log.info("Performing incremental build");
     }
 
+    File stagingDirectory = null;
+    if (stateFile != null && Boolean.getBoolean(STAGED_OUTPUTS)) {
+      stagingDirectory = new File(stateFile.getParentFile(), stateFile.getName() + "-staging");
+      // leftover of a staged build that failed before commit
+      deleteRecursively(stagingDirectory);
+    }
+    this.stagingDirectory = stagingDirectory;
+
+    this.spillDirectory =
+        stateFile != null ? new File(stateFile.getParentFile(), stateFile.getName() + "-tmp")
+            : null;
+
+    this.inputVerification = InputVerification.fromSystemProperties();
+
+    this.pruneEmptyDirectories = Boolean.getBoolean(PRUNE_EMPTY_DIRECTORIES);
+
+    if (Boolean.getBoolean(ASYNC_OUTPUTS)) {
+      this.asyncOutputs = new AsyncOutputs(new AsyncOutputs.Callback() {
+        @Override
+        public void written(File file, byte[] digest, DigestingFileOutputStream.Result result) {
+          writtenOutput(file, digest, result);
+        }
+
+        @Override
+        public OutputStream newOutputStream(File file) {
+          return newDigestingOutputStream(file);
+        }
+      });
+    } else {
+      this.asyncOutputs = null;
+    }
+
     if (finalizer != null) {
       finalizer.registerContext(this);
     }
@@ -174,6 +317,7 @@ public abstract class AbstractBuildContext {
   protected Collection<DefaultResourceMetadata<File>> registerInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException {
     basedir = normalize(basedir);
+    state.addInputSpec(new InputSpec(basedir, includes, excludes));
     final List<DefaultResourceMetadata<File>> result = new ArrayList<>();
     final FileMatcher matcher = FileMatcher.matcher(basedir, includes, excludes);
     workspace.walk(basedir, new FileVisitor() {
@@ -198,81 +342,307 @@ public abstract class AbstractBuildContext {
     if (workspace.getMode() == Mode.DELTA) {
       // only NEW, MODIFIED and REMOVED resources are reported in DELTA mode
       // need to find any UNMODIFIED
-      final FileMatcher absoluteMatcher = FileMatcher.absoluteMatcher(basedir, includes, excludes);
-      for (ResourceHolder<?> holder : oldState.getResources().values()) {
-        if (holder instanceof FileState) {
-          FileState fileState = (FileState) holder;
-          if (!state.isResource(fileState.file) && !deletedResources.contains(fileState.file)
-              && absoluteMatcher.matches(fileState.file)) {
-            result.add(
-                registerNormalizedInput(fileState.file, fileState.lastModified, fileState.length));
+      registerUnmodifiedInputs(basedir,
+          FileMatcher.absoluteMatcher(basedir, includes, excludes), result);
+    }
+    return result;
+  }
+
+  /**
+   * Registers resources matching any of the specs as this build's input set. Walks each directory
+   * once, regardless of the number of specs with the same or nested basedirs.
+   */
+  protected Map<InputSpec, Collection<DefaultResourceMetadata<File>>> registerInputSpecs(
+      Collection<InputSpec> specs) throws IOException {
+    final Map<InputSpec, Collection<DefaultResourceMetadata<File>>> result = new LinkedHashMap<>();
+    final List<SpecMatcher> matchers = new ArrayList<>();
+    for (InputSpec spec : specs) {
+      if (!result.containsKey(spec)) {
+        SpecMatcher matcher = new SpecMatcher(spec, normalize(spec.getBasedir()));
+        state.addInputSpec(
+            new InputSpec(matcher.basedir, spec.getIncludes(), spec.getExcludes()));
+        matchers.add(matcher);
+        result.put(spec, matcher.result);
+      }
+    }
+
+    // walk outermost basedirs only, nested basedirs are visited as part of their parent walk
+    List<SpecMatcher> sorted = new ArrayList<>(matchers);
+    Collections.sort(sorted, new Comparator<SpecMatcher>() {
+      @Override
+      public int compare(SpecMatcher o1, SpecMatcher o2) {
+        return Integer.compare(o1.basedir.getPath().length(), o2.basedir.getPath().length());
+      }
+    });
+    final Map<File, List<SpecMatcher>> roots = new LinkedHashMap<>();
+    for (SpecMatcher matcher : sorted) {
+      File root = null;
+      for (File other : roots.keySet()) {
+        if (isAncestorOrSelf(other, matcher.basedir)) {
+          root = other;
+          break;
+        }
+      }
+      if (root == null) {
+        root = matcher.basedir;
+        roots.put(root, new ArrayList<SpecMatcher>());
+      }
+      roots.get(root).add(matcher);
+    }
+
+    for (Map.Entry<File, List<SpecMatcher>> root : roots.entrySet()) {
+      final List<SpecMatcher> rootMatchers = root.getValue();
+      workspace.walk(root.getKey(), new FileVisitor() {
+        @Override
+        public void visit(File file, long lastModified, long length,
+            Workspace.ResourceStatus status) {
+          DefaultResourceMetadata<File> metadata = null;
+          for (SpecMatcher matcher : rootMatchers) {
+            if (matcher.matcher.matches(file)) {
+              switch (status) {
+                case MODIFIED:
+                case NEW:
+                  if (metadata == null) {
+                    metadata = registerNormalizedInput(file, lastModified, length);
+                  }
+                  matcher.result.add(metadata);
+                  break;
+                case REMOVED:
+                  deletedResources.add(file);
+                  break;
+                default:
+                  throw new IllegalArgumentException();
+              }
+            }
           }
         }
+      });
+    }
+
+    if (workspace.getMode() == Mode.DELTA) {
+      // only NEW, MODIFIED and REMOVED resources are reported in DELTA mode
+      // need to find any UNMODIFIED
+      for (SpecMatcher matcher : matchers) {
+        registerUnmodifiedInputs(matcher.basedir, matcher.matcher, matcher.result);
       }
     }
+
     return result;
   }
 
+  private static boolean isAncestorOrSelf(File ancestor, File file) {
+    String path = ancestor.getPath();
+    String other = file.getPath();
+    if (!other.startsWith(path)) {
+      return false;
+    }
+    return other.length() == path.length() || path.endsWith(File.separator)
+        || other.charAt(path.length()) == File.separatorChar;
+  }
+
+  private static class SpecMatcher {
+    final File basedir;
+
+    final FileMatcher matcher;
+
+    final List<DefaultResourceMetadata<File>> result = new ArrayList<>();
+
+    public SpecMatcher(InputSpec spec, File basedir) {
+      this.basedir = basedir;
+      this.matcher =
+          FileMatcher.absoluteMatcher(basedir, spec.getIncludes(), spec.getExcludes());
+    }
+  }
+
   protected Collection<DefaultResource<File>> registerAndProcessInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException {
-    basedir = normalize(basedir);
     final List<DefaultResource<File>> result = new ArrayList<>();
-    final FileMatcher matcher = FileMatcher.matcher(basedir, includes, excludes);
-    workspace.walk(basedir, new FileVisitor() {
+    registerAndProcessInputs(basedir, includes, excludes, new ResourceProcessor() {
       @Override
-      public void visit(File file, long lastModified, long length,
-          Workspace.ResourceStatus status) {
-        if (matcher.matches(file)) {
-          switch (status) {
-            case MODIFIED:
-            case NEW:
+      public void process(Resource<File> input) {
+        result.add((DefaultResource<File>) input);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Registers matching resources as this build's input set and passes new and modified inputs to
+   * the processor on the calling thread, in walk order, while the walk is still in progress.
+   * Processed inputs are not retained.
+   */
+  protected void registerAndProcessInputs(File basedir, Collection<String> includes,
+      Collection<String> excludes, final ResourceProcessor processor) throws IOException {
+    if (processor == null) {
+      throw new IllegalArgumentException();
+    }
+    processInputs(normalize(basedir), includes, excludes, processor, 1);
+  }
+
+  /**
+   * Registers matching resources as this build's input set and passes new and modified inputs to
+   * the processor using multiple threads. Inputs waiting for processing are processed largest
+   * first, so long running inputs do not delay completion of the whole set. With a single thread,
+   * inputs are processed on the calling thread in walk order.
+   */
+  protected void processInputsInParallel(File basedir, Collection<String> includes,
+      Collection<String> excludes, final ResourceProcessor processor) throws IOException {
+    if (processor == null) {
+      throw new IllegalArgumentException();
+    }
+    int threads =
+        Integer.getInteger(PROCESSING_THREADS, Runtime.getRuntime().availableProcessors());
+    processInputs(normalize(basedir), includes, excludes, processor, Math.max(1, threads));
+  }
+
+  /**
+   * Registers and processes inputs. For filesystem workspaces, uses {@link InputPipeline}, so the
+   * walk, pattern matching and status checks overlap with processing of already selected inputs.
+   * Other workspaces are walked on the calling thread and inputs are processed one at a time as
+   * they are walked, because workspace implementations are not required to be thread-safe.
+   */
+  private void processInputs(File basedir, Collection<String> includes,
+      Collection<String> excludes, final ResourceProcessor processor, int threads)
+      throws IOException {
+    state.addInputSpec(new InputSpec(basedir, includes, excludes));
+    final FileMatcher matcher = FileMatcher.matcher(basedir, includes, excludes);
+    if (isFilesystem(basedir)) {
+      InputPipeline<DefaultResourceMetadata<File>> pipeline =
+          new InputPipeline<DefaultResourceMetadata<File>>() {
+            @Override
+            protected boolean matches(File file) {
+              return matcher.matches(file);
+            }
+
+            @Override
+            protected DefaultResourceMetadata<File> select(File file, long lastModified,
+                long length, Workspace.ResourceStatus status) {
+              return selectInput(file, lastModified, length, status);
+            }
+
+            @Override
+            protected void process(DefaultResourceMetadata<File> metadata) throws IOException {
+              processor.process(processResource(metadata));
+            }
+          };
+      pipeline.run(workspace, basedir, threads);
+      log.debug("Processed inputs under {}: {}", basedir, pipeline.getStages());
+    } else {
+      try {
+        workspace.walk(basedir, new FileVisitor() {
+          @Override
+          public void visit(File file, long lastModified, long length,
+              Workspace.ResourceStatus status) {
+            if (matcher.matches(file)) {
               DefaultResourceMetadata<File> metadata =
-                  registerNormalizedInput(file, lastModified, length);
-              if (workspace.getMode() == Mode.DELTA
-                  || getResourceStatus(file) != ResourceStatus.UNMODIFIED) {
-                result.add(processResource(metadata));
+                  selectInput(file, lastModified, length, status);
+              if (metadata != null) {
+                try {
+                  processor.process(processResource(metadata));
+                } catch (IOException e) {
+                  throw new ProcessingException(e);
+                }
               }
-              break;
-            case REMOVED:
-              deletedResources.add(file);
-              break;
-            default:
-              throw new IllegalArgumentException();
+            }
           }
-        }
+        });
+      } catch (ProcessingException e) {
+        throw e.getCause();
       }
-    });
+    }
     if (workspace.getMode() == Mode.DELTA) {
       // only NEW, MODIFIED and REMOVED resources are reported in DELTA mode
       // need to find any UNMODIFIED
-      final FileMatcher absoluteMatcher = FileMatcher.absoluteMatcher(basedir, includes, excludes);
-      for (ResourceHolder<?> holder : oldState.getResources().values()) {
-        if (holder instanceof FileState) {
-          FileState fileState = (FileState) holder;
-          if (!state.isResource(fileState.file) && !deletedResources.contains(fileState.file)
-              && absoluteMatcher.matches(fileState.file)) {
+      registerUnmodifiedInputs(basedir,
+          FileMatcher.absoluteMatcher(basedir, includes, excludes), null);
+    }
+  }
+
+  /**
+   * Registers walked input and returns its metadata if the input needs processing, {@code null}
+   * otherwise.
+   */
+  private DefaultResourceMetadata<File> selectInput(File file, long lastModified, long length,
+      Workspace.ResourceStatus status) {
+    switch (status) {
+      case MODIFIED:
+      case NEW:
+        DefaultResourceMetadata<File> metadata =
+            registerNormalizedInput(file, lastModified, length);
+        if (workspace.getMode() == Mode.DELTA
+            || getResourceStatus(file) != ResourceStatus.UNMODIFIED) {
+          return metadata;
+        }
+        return null;
+      case REMOVED:
+        deletedResources.add(file);
+        return null;
+      default:
+        throw new IllegalArgumentException();
+    }
+  }
+
+  /**
+   * Registers previous build inputs under {@code basedir} that were not reported by DELTA workspace
+   * walk, i.e. inputs that did not change since previous build.
+   */
+  private void registerUnmodifiedInputs(File basedir, FileMatcher absoluteMatcher,
+      List<DefaultResourceMetadata<File>> result) {
+    for (FileState fileState : oldState.getFileStates(basedir)) {
+      if (!state.isResource(fileState.file) && !deletedResources.contains(fileState.file)
+          && absoluteMatcher.matches(fileState.file)) {
+        DefaultResourceMetadata<File> metadata =
             registerNormalizedInput(fileState.file, fileState.lastModified, fileState.length);
-          }
+        if (result != null) {
+          result.add(metadata);
         }
       }
     }
-    return result;
   }
 
-  protected static File normalize(File file) {
+  /**
+   * Carries {@link ResourceProcessor} exceptions through {@link FileVisitor}, which is not allowed
+   * to throw checked exceptions.
+   */
+  private static class ProcessingException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ProcessingException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+
+  protected File normalize(File file) {
     if (file == null) {
       throw new IllegalArgumentException();
     }
+    File normalized;
     try {
-      return file.getCanonicalFile();
+      normalized = canonicalFiles.canonicalize(file);
     } catch (IOException e) {
-      return file.getAbsoluteFile();
+      normalized = file.getAbsoluteFile();
     }
+    return intern(normalized);
+  }
+
+  /**
+   * Returns {@code File} instance used by previous build state to represent the same file, if any,
+   * so current and previous build state do not hold duplicate instances of the same resource key.
+   */
+  private File intern(File file) {
+    ResourceHolder<?> holder = oldState.getResource(file);
+    return holder instanceof FileState ? ((FileState) holder).file : file;
   }
 
   protected DefaultResourceMetadata<File> registerNormalizedInput(File resourceFile,
       long lastModified, long length) {
     assertOpen();
+    resourceFile = intern(resourceFile);
     if (!state.isResource(resourceFile)) {
       registerInput(newFileState(resourceFile, lastModified, length));
     }
@@ -281,22 +651,28 @@ public abstract class AbstractBuildContext {
 
   protected DefaultResourceMetadata<File> registerNormalizedOutput(File outputFile) {
     assertOpen();
-    if (!state.isResource(outputFile)) {
-      state.putResource(outputFile, null); // placeholder
-      state.addOutput(outputFile);
-    } else {
-      if (!state.isOutput(outputFile)) {
-        throw new IllegalStateException("Already registered as input " + outputFile);
+    synchronized (state) {
+      if (!state.isResource(outputFile)) {
+        state.putResource(outputFile, null); // placeholder
+        state.addOutput(outputFile);
+      } else {
+        if (!state.isOutput(outputFile)) {
+          throw new IllegalStateException("Already registered as input " + outputFile);
+        }
       }
     }
     return new DefaultResourceMetadata<File>(this, oldState, outputFile);
   }
 
   private FileState newFileState(File file, long lastModified, long length) {
+    return newFileState(file, lastModified, length, null);
+  }
+
+  private FileState newFileState(File file, long lastModified, long length, byte[] digest) {
     if (!workspace.isPresent(file)) {
       throw new IllegalArgumentException("File does not exist or cannot be read " + file);
     }
-    return new FileState(file, lastModified, length);
+    return new FileState(file, lastModified, length, digest);
   }
 
   protected DefaultResourceMetadata<File> registerInput(File inputFile) {
@@ -304,28 +680,106 @@ public abstract class AbstractBuildContext {
     return registerNormalizedInput(inputFile, inputFile.lastModified(), inputFile.length());
   }
 
+  /**
+   * Attributes of an input file read by {@link #registerInputs(Collection)}.
+   */
+  private static class InputAttributes {
+    final File file;
+
+    final long lastModified;
+
+    final long length;
+
+    /**
+     * {@code true} if the file is a readable regular file, same as
+     * {@link FilesystemWorkspace#isPresent(File)}.
+     */
+    final boolean present;
+
+    InputAttributes(File file, long lastModified, long length, boolean present) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.present = present;
+    }
+  }
+
+  /**
+   * Registers specified input files. Files are canonicalized and their attributes read in parallel,
+   * the returned metadata is in the order of {@code inputFiles}. On filesystem workspaces, presence
+   * of the files is determined in parallel too and the files are not accessed again when they are
+   * registered.
+   */
+  protected List<DefaultResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException {
+    assertOpen();
+    List<InputAttributes> attributes = Parallel.map(new ArrayList<>(inputFiles),
+        new Parallel.Function<File, InputAttributes>() {
+          @Override
+          public InputAttributes apply(File inputFile) {
+            File file = normalize(inputFile);
+            if (state.isResource(file)) {
+              // already registered, attributes are not used and don't need to be read
+              return new InputAttributes(file, 0L, 0L, true);
+            }
+            long lastModified = file.lastModified();
+            boolean present = lastModified != 0L && file.isFile() && file.canRead();
+            return new InputAttributes(file, lastModified, file.length(), present);
+          }
+        });
+    List<DefaultResourceMetadata<File>> result = new ArrayList<>(attributes.size());
+    for (InputAttributes input : attributes) {
+      if (isFilesystem(input.file)) {
+        if (!input.present) {
+          throw new IllegalArgumentException("File does not exist or cannot be read "
+              + input.file);
+        }
+        result.add(registerPresentInput(input.file, input.lastModified, input.length));
+      } else {
+        result.add(registerNormalizedInput(input.file, input.lastModified, input.length));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Registers normalized input file known to be present, without accessing the file.
+   */
+  private DefaultResourceMetadata<File> registerPresentInput(File resourceFile,
+      long lastModified, long length) {
+    if (!state.isResource(resourceFile)) {
+      putInput(resourceFile, new FileState(resourceFile, lastModified, length, null));
+    }
+    return new DefaultResourceMetadata<File>(this, oldState, resourceFile);
+  }
+
   /**
    * Adds the resource to this build's resource set. The resource must exist, i.e. it's status must
    * not be REMOVED.
    */
   protected <T extends Serializable> T registerInput(ResourceHolder<T> holder) {
     T resource = holder.getResource();
-    ResourceHolder<?> other = state.getResource(resource);
-    if (other == null) {
-      if (getResourceStatus(holder) == ResourceStatus.REMOVED) {
-        throw new IllegalArgumentException("Resource does not exist " + resource);
-      }
-      state.putResource(resource, holder);
-    } else {
-      if (state.isOutput(resource)) {
-        throw new IllegalStateException("Already registered as output " + resource);
-      }
-      if (!holder.equals(other)) {
-        throw new IllegalArgumentException("Inconsistent resource state " + resource);
+    // resource status check may need to access the file system, do it before taking the lock
+    if (!state.isResource(resource) && getResourceStatus(holder) == ResourceStatus.REMOVED) {
+      throw new IllegalArgumentException("Resource does not exist " + resource);
+    }
+    putInput(resource, holder);
+    return resource;
+  }
+
+  private <T extends Serializable> void putInput(T resource, ResourceHolder<T> holder) {
+    synchronized (state) {
+      ResourceHolder<?> other = state.getResource(resource);
+      if (other != null) {
+        if (state.isOutput(resource)) {
+          throw new IllegalStateException("Already registered as output " + resource);
+        }
+        if (!holder.equals(other)) {
+          throw new IllegalArgumentException("Inconsistent resource state " + resource);
+        }
       }
       state.putResource(resource, holder);
     }
-    return resource;
   }
 
   /**
@@ -341,7 +795,15 @@ public abstract class AbstractBuildContext {
       return ResourceStatus.NEW;
     }
 
-    ResourceStatus status = getResourceStatus(oldResourceState);
+    ResourceStatus status;
+    ResourceHolder<?> resourceState = state.getResource(resource);
+    if (oldResourceState instanceof FileState && resourceState instanceof FileState
+        && !state.isOutput(resource) && isFilesystem(((FileState) resourceState).file)) {
+      // attributes of the input were read when it was registered, don't read them again
+      status = getResourceStatus((FileState) oldResourceState, (FileState) resourceState);
+    } else {
+      status = getResourceStatus(oldResourceState);
+    }
 
     if (status == ResourceStatus.UNMODIFIED && escalated) {
       status = ResourceStatus.MODIFIED;
@@ -350,6 +812,12 @@ public abstract class AbstractBuildContext {
     return status;
   }
 
+  private static ResourceStatus getResourceStatus(FileState oldState, FileState state) {
+    return oldState.lastModified == state.lastModified && oldState.length == state.length
+        ? ResourceStatus.UNMODIFIED
+        : ResourceStatus.MODIFIED;
+  }
+
   private ResourceStatus getResourceStatus(ResourceHolder<?> holder) {
     if (holder instanceof FileState) {
       FileState fileState = (FileState) holder;
@@ -386,12 +854,14 @@ public abstract class AbstractBuildContext {
   }
 
   protected void processResource(final Object resource) {
-    processedResources.add(resource);
+    synchronized (state) {
+      processedResources.add(resource);
 
-    // reset all metadata associated with the resource during this build
-    state.removeResourceAttributes(resource);
-    state.removeResourceMessages(resource);
-    state.removeResourceOutputs(resource);
+      // reset all metadata associated with the resource during this build
+      state.removeResourceAttributes(resource);
+      state.removeResourceMessages(resource);
+      state.removeResourceOutputs(resource);
+    }
   }
 
   protected void markProcessedResource(Object resource) {
@@ -435,13 +905,260 @@ public abstract class AbstractBuildContext {
     registerNormalizedOutput(outputFile);
     processResource(outputFile);
 
-    workspace.processOutput(outputFile);
+    // workspace is notified during commit, only if the output contents actually changed
 
     return newOutput(outputFile);
   }
 
   protected OutputStream newOutputStream(DefaultOutput output) throws IOException {
-    return workspace.newOutputStream(output.getResource());
+    final File outputFile = output.getResource();
+    if (isFilesystem(outputFile)) {
+      if (asyncOutputs != null) {
+        return asyncOutputs.newOutputStream(outputFile, getTarget(outputFile),
+            getOldFileState(outputFile));
+      }
+      return newDigestingOutputStream(outputFile);
+    }
+    return new DigestOutputStream(workspace.newOutputStream(outputFile), FileState.newDigester()) {
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        if (!closed) {
+          closed = true;
+          byte[] digest = getMessageDigest().digest();
+          // workspace does not expose attributes of the written file
+          writtenOutput(outputFile, digest,
+              new DigestingFileOutputStream.Result(!isSameDigest(outputFile, digest),
+                  outputFile.lastModified(), outputFile.length()));
+        }
+      }
+    };
+  }
+
+  protected void writeOutput(DefaultOutput output, ByteBuffer contents) throws IOException {
+    final File outputFile = output.getResource();
+    if (isFilesystem(outputFile)) {
+      awaitOutput(outputFile);
+      MessageDigest digester = FileState.newDigester();
+      digester.update(contents.duplicate());
+      byte[] digest = digester.digest();
+      DigestingFileOutputStream.Result result = DigestingFileOutputStream.write(outputFile,
+          getTarget(outputFile), getOldFileState(outputFile), contents, digest);
+      writtenOutput(outputFile, digest, result);
+      return;
+    }
+    try (OutputStream os = newOutputStream(output)) {
+      DefaultOutput.writeTo(os, contents);
+    }
+  }
+
+  private OutputStream newDigestingOutputStream(final File outputFile) {
+    return new DigestingFileOutputStream(outputFile, getTarget(outputFile),
+        getOldFileState(outputFile)) {
+      @Override
+      protected Path newSpillFile() throws IOException {
+        return spillDirectory != null
+            ? AbstractBuildContext.this.newSpillFile(outputFile)
+            : super.newSpillFile();
+      }
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        writtenOutput(outputFile, getDigest(), getResult());
+      }
+    };
+  }
+
+  protected void copyOutput(DefaultOutput output, Path source) throws IOException {
+    final File outputFile = output.getResource();
+    if (isFilesystem(outputFile)) {
+      awaitOutput(outputFile);
+      DigestingFileOutputStream.Result result = DigestingFileOutputStream.copy(source,
+          outputFile, getTarget(outputFile), getOldFileState(outputFile));
+      writtenOutput(outputFile, result.digest, result);
+      return;
+    }
+    try (OutputStream os = newOutputStream(output)) {
+      Files.copy(source, os);
+    }
+  }
+
+  private synchronized Path newSpillFile(File outputFile) throws IOException {
+    if (!spilled) {
+      // leftovers of a build that failed before commit
+      deleteRecursively(spillDirectory);
+      spilled = true;
+    }
+    return DigestingFileOutputStream.createTempFile(new File(spillDirectory, outputFile.getName()));
+  }
+
+  /**
+   * Deletes contents spilled by output streams that were not closed.
+   */
+  private synchronized void deleteSpillDirectory() {
+    if (spilled) {
+      deleteRecursively(spillDirectory);
+      spilled = false;
+    }
+  }
+
+  private boolean isFilesystem(File file) {
+    return workspace instanceof ExtendedWorkspace
+        && ((ExtendedWorkspace) workspace).isFilesystem(file);
+  }
+
+  private FileState getOldFileState(File file) {
+    ResourceHolder<?> holder = oldState.getResource(file);
+    return holder instanceof FileState ? (FileState) holder : null;
+  }
+
+  /**
+   * Returns the file changed contents of the output are written to.
+   */
+  private synchronized File getTarget(File outputFile) {
+    if (stagingDirectory == null) {
+      return outputFile;
+    }
+    File stagedFile = stagedFiles.get(outputFile);
+    if (stagedFile == null) {
+      // outputs with the same name can come from different directories
+      File directory = new File(stagingDirectory, Integer.toString(stagedFiles.size()));
+      stagedFile = new File(directory, outputFile.getName());
+      stagedFiles.put(outputFile, stagedFile);
+    }
+    return stagedFile;
+  }
+
+  private synchronized void writtenOutput(File outputFile, byte[] digest,
+      DigestingFileOutputStream.Result result) {
+    File stagedFile = stagedFiles.get(outputFile);
+    if (stagedFile != null) {
+      if (result.modified) {
+        stagedOutputs.put(outputFile, digest);
+        return;
+      }
+      // same contents as the output in place, discard contents staged by an earlier write
+      if (stagedOutputs.remove(outputFile) != null) {
+        stagedFile.delete();
+      }
+    }
+    writtenOutputs.put(outputFile,
+        new FileState(outputFile, result.lastModified, result.length, digest));
+    if (result.modified) {
+      state.addModifiedOutput(outputFile);
+    }
+  }
+
+  /**
+   * Moves staged outputs in place of the outputs of the previous build. The state file of the
+   * previous build is deleted first, so if any move fails, the next build does not trust partially
+   * replaced outputs and performs full build. The new state is only stored after all outputs were
+   * moved.
+   */
+  private void publishStagedOutputs() throws IOException {
+    if (stagingDirectory == null) {
+      return;
+    }
+    if (!stagedOutputs.isEmpty() && stateFile != null) {
+      Files.deleteIfExists(stateFile.toPath());
+    }
+    for (Map.Entry<File, byte[]> entry : stagedOutputs.entrySet()) {
+      File outputFile = entry.getKey();
+      File parent = outputFile.getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory " + parent);
+      }
+      DigestingFileOutputStream.move(stagedFiles.get(outputFile).toPath(), outputFile.toPath());
+      stagedFiles.remove(outputFile);
+      writtenOutput(outputFile, entry.getValue(), new DigestingFileOutputStream.Result(true,
+          outputFile.lastModified(), outputFile.length()));
+    }
+    stagedOutputs.clear();
+    deleteRecursively(stagingDirectory);
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private void awaitOutput(File outputFile) throws IOException {
+    if (asyncOutputs != null) {
+      asyncOutputs.await(outputFile);
+    }
+  }
+
+  /**
+   * Waits for all pending asynchronous output writes. Failures are rethrown by
+   * {@link #commit(MessageSinkAdaptor)}.
+   */
+  private void awaitOutputs() {
+    if (asyncOutputs != null) {
+      try {
+        asyncOutputs.await();
+      } catch (IOException e) {
+        if (asyncFailure == null) {
+          asyncFailure = e;
+        } else {
+          asyncFailure.addSuppressed(e);
+        }
+      }
+    }
+  }
+
+  private boolean isSameDigest(File outputFile, byte[] digest) {
+    FileState previous = getOldFileState(outputFile);
+    return previous != null && Arrays.equals(previous.digest, digest);
+  }
+
+  /**
+   * Returns outputs created or changed during this build. Outputs written through this build
+   * context are considered changed if their contents changed. Other processed outputs are
+   * considered changed if their timestamp or length changed since previous build.
+   */
+  protected Collection<File> getModifiedOutputs() {
+    awaitOutputs();
+    List<File> result = new ArrayList<>();
+    for (File outputFile : state.getOutputs()) {
+      if (isModifiedOutput(outputFile)) {
+        result.add(outputFile);
+      }
+    }
+    return result;
+  }
+
+  private boolean isModifiedOutput(File outputFile) {
+    if (state.isModifiedOutput(outputFile) || stagedOutputs.containsKey(outputFile)) {
+      return true;
+    }
+    if (!isProcessedResource(outputFile) || writtenOutputs.containsKey(outputFile)
+        || !outputFile.isFile()) {
+      return false;
+    }
+    FileState previous = getOldFileState(outputFile);
+    return previous == null || previous.lastModified != outputFile.lastModified()
+        || previous.length != outputFile.length();
+  }
+
+  /**
+   * Returns new state of the output file. State of outputs written through this build context,
+   * including contents digest, is captured when the output is written and the file is not queried
+   * again.
+   */
+  private FileState newOutputState(File outputFile) {
+    FileState written = writtenOutputs.get(outputFile);
+    if (written != null) {
+      return written;
+    }
+    return newFileState(outputFile, outputFile.lastModified(), outputFile.length());
   }
 
   protected <T> DefaultOutput associate(DefaultResource<T> resource, DefaultOutput output) {
@@ -452,9 +1169,11 @@ public abstract class AbstractBuildContext {
       throw new IllegalArgumentException();
     }
 
-    assertAssociation(resource, output);
+    synchronized (state) {
+      assertAssociation(resource, output);
 
-    state.putResourceOutput(resource.getResource(), output.getResource());
+      state.putResourceOutput(resource.getResource(), output.getResource());
+    }
     return output;
   }
 
@@ -478,30 +1197,108 @@ public abstract class AbstractBuildContext {
   }
 
   public void commit(MessageSinkAdaptor messager) throws IOException {
+    commitDeferLogging(messager).run();
+  }
+
+  /**
+   * Same as {@link #commit(MessageSinkAdaptor)}, except messages recorded during previous builds are
+   * not logged by this method but by the returned {@link Runnable}. This allows finalizers that
+   * commit multiple contexts concurrently to log messages of the contexts in order.
+   *
+   * @noreference this is public for use by build context finalizers only
+   */
+  public Runnable commitDeferLogging(MessageSinkAdaptor messager) throws IOException {
     if (closed) {
-      return;
+      return NO_LOGGING;
     }
     this.closed = true;
 
+    // all outputs must be on disk before obsolete outputs are deleted and new outputs timestamped
+    awaitOutputs();
+    deleteSpillDirectory();
+    if (asyncFailure != null) {
+      throw asyncFailure;
+    }
+
     // messages recorded during this build
     Map<Object, Collection<Message>> newMessages = new HashMap<>(state.getResourceMessages());
 
     finalizeContext();
 
     // assert inputs didn't change
+    verifyInputs();
+
+    if (processedResources.isEmpty() && state.isCarriedOver(oldState)) {
+      // no-op build, nothing was processed and all resources were carried over unchanged
+      // the state of the previous build is still current, no need to store it again
+      log.debug("No changes, incremental build state {} is up-to-date", stateFile);
+    } else {
+      storeState();
+    }
+
+    return replayMessages(messager, newMessages);
+  }
+
+  /**
+   * Checks that inputs did not change since they were registered, according to the
+   * {@link InputVerification} policy. Inputs are checked in parallel.
+   */
+  private void verifyInputs() throws IOException {
+    if (inputVerification == InputVerification.OFF) {
+      return;
+    }
+    List<Map.Entry<Object, ResourceHolder<?>>> inputs = new ArrayList<>();
+    List<Map.Entry<Object, ResourceHolder<?>>> unprocessed = new ArrayList<>();
     for (Map.Entry<Object, ResourceHolder<?>> entry : state.getResources().entrySet()) {
       Object resource = entry.getKey();
-      ResourceHolder<?> holder = entry.getValue();
-      if (!state.isOutput(resource) && holder.getStatus() != ResourceStatus.UNMODIFIED) {
-        throw new IllegalStateException("Unexpected input change " + resource);
+      if (state.isOutput(resource)) {
+        continue;
       }
+      if (inputVerification == InputVerification.FULL || isProcessedResource(resource)) {
+        inputs.add(entry);
+      } else if (inputVerification == InputVerification.SAMPLED) {
+        unprocessed.add(entry);
+      }
+    }
+    if (!unprocessed.isEmpty()) {
+      int sampleSize = Math.min(unprocessed.size(),
+          Math.max(VERIFICATION_SAMPLE_SIZE, unprocessed.size() / 16));
+      Collections.shuffle(unprocessed);
+      inputs.addAll(unprocessed.subList(0, sampleSize));
     }
+    Parallel.map(inputs, new Parallel.Function<Map.Entry<Object, ResourceHolder<?>>, Void>() {
+      @Override
+      public Void apply(Map.Entry<Object, ResourceHolder<?>> entry) {
+        if (entry.getValue().getStatus() != ResourceStatus.UNMODIFIED) {
+          throw new IllegalStateException("Unexpected input change " + entry.getKey());
+        }
+        return null;
+      }
+    });
+  }
+
+  private void storeState() throws IOException {
+    publishStagedOutputs();
 
     // timestamp new outputs
+    List<File> modifiedOutputs = new ArrayList<>();
     for (File outputFile : state.getOutputs()) {
       if (state.getResource(outputFile) == null) {
-        state.putResource(outputFile,
-            newFileState(outputFile, outputFile.lastModified(), outputFile.length()));
+        if (isModifiedOutput(outputFile)) {
+          state.addModifiedOutput(outputFile);
+          modifiedOutputs.add(outputFile);
+        }
+        state.putResource(outputFile, newOutputState(outputFile));
+      }
+    }
+
+    if (!modifiedOutputs.isEmpty()) {
+      if (workspace instanceof ExtendedWorkspace) {
+        ((ExtendedWorkspace) workspace).processOutputs(modifiedOutputs);
+      } else {
+        for (File outputFile : modifiedOutputs) {
+          workspace.processOutput(outputFile);
+        }
       }
     }
 
@@ -513,23 +1310,39 @@ public abstract class AbstractBuildContext {
       log.debug("Stored incremental build state {} ({} ms)", stateFile,
           System.currentTimeMillis() - start);
     }
+  }
 
+  /**
+   * Passes messages to the messager and returns the {@link Runnable} that logs messages recorded
+   * during previous builds.
+   */
+  private Runnable replayMessages(MessageSinkAdaptor messager,
+      Map<Object, Collection<Message>> newMessages) {
     // new messages are logged as soon as they are reported during the build
     // replay old messages so the user can still see them
     Map<Object, Collection<Message>> allMessages = new HashMap<>(state.getResourceMessages());
 
-
+    Runnable logging = NO_LOGGING;
     if (!allMessages.keySet().equals(newMessages.keySet())) {
-      log.info("Replaying recorded messages...");
+      final Map<Object, Collection<Message>> oldMessages = new LinkedHashMap<>();
       for (Map.Entry<Object, Collection<Message>> entry : allMessages.entrySet()) {
-        Object resource = entry.getKey();
-        if (!newMessages.containsKey(resource)) {
-          for (Message message : entry.getValue()) {
-            log(resource, message.line, message.column, message.message, message.severity,
-                message.cause);
-          }
+        if (!newMessages.containsKey(entry.getKey())) {
+          oldMessages.put(entry.getKey(), entry.getValue());
         }
       }
+      logging = new Runnable() {
+        @Override
+        public void run() {
+          log.info("Replaying recorded messages...");
+          for (Map.Entry<Object, Collection<Message>> entry : oldMessages.entrySet()) {
+            Object resource = entry.getKey();
+            for (Message message : entry.getValue()) {
+              log(resource, message.line, message.column, message.message, message.severity,
+                  message.cause);
+            }
+          }
+        }
+      };
     }
 
     // processedResources includes resources added, changed and deleted during this build
@@ -546,6 +1359,7 @@ public abstract class AbstractBuildContext {
       messager.record(allMessages, newMessages);
     }
 
+    return logging;
   }
 
   protected abstract void finalizeContext() throws IOException;
@@ -566,22 +1380,105 @@ public abstract class AbstractBuildContext {
   }
 
   protected void deleteOutput(File resource) throws IOException {
-    if (!oldState.isOutput(resource) && !state.isOutput(resource)) {
-      // not an output known to this build context
-      throw new IllegalArgumentException();
+    deleteOutputs(Collections.singletonList(resource));
+  }
+
+  /**
+   * Deletes the outputs as a single batch. Filesystem workspace deletes the files in parallel.
+   */
+  protected void deleteOutputs(Collection<File> resources) throws IOException {
+    for (File resource : resources) {
+      if (!oldState.isOutput(resource) && !state.isOutput(resource)) {
+        // not an output known to this build context
+        throw new IllegalArgumentException();
+      }
+    }
+
+    if (resources.isEmpty()) {
+      return;
+    }
+
+    if (workspace instanceof ExtendedWorkspace) {
+      ((ExtendedWorkspace) workspace).deleteFiles(resources);
+    } else {
+      for (File resource : resources) {
+        workspace.deleteFile(resource);
+      }
     }
 
-    workspace.deleteFile(resource);
+    for (File resource : resources) {
+      deletedResources.add(resource);
+      processedResources.add(resource);
 
-    deletedResources.add(resource);
-    processedResources.add(resource);
+      state.removeResource(resource);
+      state.removeOutput(resource);
 
-    state.removeResource(resource);
-    state.removeOutput(resource);
+      state.removeResourceAttributes(resource);
+      state.removeResourceMessages(resource);
+      state.removeResourceOutputs(resource);
+    }
 
-    state.removeResourceAttributes(resource);
-    state.removeResourceMessages(resource);
-    state.removeResourceOutputs(resource);
+    if (pruneEmptyDirectories) {
+      pruneEmptyDirectories(resources);
+    }
+  }
+
+  /**
+   * Deletes directories left empty after deletion of the outputs. Only directories that directly
+   * contained outputs of this or the previous build are deleted, and only if they are below the
+   * closest common parent of all those directories. This way output roots, like
+   * {@code target/classes}, and directories above them are never deleted.
+   */
+  private void pruneEmptyDirectories(Collection<File> deleted) {
+    Set<File> outputDirectories = new HashSet<>();
+    addParents(outputDirectories, deleted);
+    addParents(outputDirectories, oldState.getOutputs());
+    addParents(outputDirectories, state.getOutputs());
+    File root = getCommonParent(outputDirectories);
+
+    // reverse path order visits subdirectories before their parents
+    TreeSet<File> directories = new TreeSet<>(Collections.reverseOrder());
+    for (File file : deleted) {
+      addPrunable(directories, file.getParentFile(), outputDirectories, root);
+    }
+    File directory;
+    while ((directory = directories.pollFirst()) != null) {
+      String[] children = directory.list();
+      if (children != null && children.length == 0 && directory.delete()) {
+        addPrunable(directories, directory.getParentFile(), outputDirectories, root);
+      }
+    }
+  }
+
+  private void addPrunable(Set<File> directories, File directory, Set<File> outputDirectories,
+      File root) {
+    if (directory != null && outputDirectories.contains(directory) && !directory.equals(root)
+        && isFilesystem(directory)) {
+      directories.add(directory);
+    }
+  }
+
+  private static void addParents(Set<File> directories, Collection<File> files) {
+    for (File file : files) {
+      File parent = file.getParentFile();
+      if (parent != null) {
+        directories.add(parent);
+      }
+    }
+  }
+
+  private static File getCommonParent(Collection<File> directories) {
+    Path common = null;
+    for (File directory : directories) {
+      Path path = directory.toPath();
+      if (common == null) {
+        common = path;
+      }
+      while (common != null && !path.startsWith(common)) {
+        common = common.getParent();
+      }
+    }
+    return common != null ? common.toFile() : null;
   }
 
   protected void assertOpen() {
@@ -603,6 +1500,24 @@ public abstract class AbstractBuildContext {
     closed = true;
   }
 
+  /**
+   * Returns {@code true} if this context can be committed concurrently with other contexts, i.e.
+   * its build state and outputs are managed directly on the filesystem and the workspace does not
+   * need to be called from a single thread.
+   *
+   * @noreference this is public for use by build context finalizers only
+   */
+  public boolean isConcurrentCommitSupported() {
+    return stateFile != null && isFilesystem(stateFile);
+  }
+
+  /**
+   * @noreference this is public for test purposes only
+   */
+  public boolean isProcessedOutput(File outputFile) {
+    return state.isOutput(outputFile) && isProcessedResource(outputFile);
+  }
+
   protected boolean isProcessedResource(Object resource) {
     return processedResources.contains(resource);
   }
@@ -0,0 +1,281 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes output files on a shared pool of I/O threads. Streams returned by
+ * {@link #newOutputStream(File, File, FileState)} collect contents in a pooled buffer and hand it
+ * over to an I/O thread when closed, which digests the contents and replaces the file if the
+ * contents changed. {@link #await()} waits for all pending writes and reports their results to the
+ * {@link Callback} on the calling thread.
+ * <p>
+ * Contents that do not fit in a single buffer are written on the calling thread to the stream
+ * returned by {@link Callback#newOutputStream(File)}, which is expected to spill them to disk. The
+ * number of pending writes is bounded, closing a stream blocks while the limit is reached, so at
+ * most {@link #MAX_PENDING} buffers of {@link DigestingFileOutputStream#MEMORY_THRESHOLD} bytes are
+ * held by pending writes. Instances are thread-safe, but writes of the same file must not be done
+ * concurrently.
+ */
+class AsyncOutputs {
+
+  static final int MAX_PENDING = 64;
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final int BUFFER_SIZE = DigestingFileOutputStream.MEMORY_THRESHOLD;
+
+  private static final int MAX_POOLED = 16;
+
+  private static final Queue<byte[]> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED);
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "incrementalbuild-io-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  public static interface Callback {
+    public void written(File file, byte[] digest, DigestingFileOutputStream.Result result);
+
+    /**
+     * Returns synchronous stream of the file, used for contents too large to be buffered. The
+     * stream is responsible for reporting the outcome of the write.
+     */
+    public OutputStream newOutputStream(File file) throws IOException;
+  }
+
+  private static class Written {
+    final File file;
+
+    final byte[] digest;
+
+    final DigestingFileOutputStream.Result result;
+
+    Written(File file, byte[] digest, DigestingFileOutputStream.Result result) {
+      this.file = file;
+      this.digest = digest;
+      this.result = result;
+    }
+  }
+
+  private final Callback callback;
+
+  private final Semaphore permits = new Semaphore(MAX_PENDING);
+
+  // guarded by this instance monitor, which is never held while waiting for a write
+  private final Map<File, Future<Written>> pending = new LinkedHashMap<>();
+
+  public AsyncOutputs(Callback callback) {
+    this.callback = callback;
+  }
+
+  /**
+   * @param target is the file changed contents are written to, usually the file itself
+   */
+  public OutputStream newOutputStream(final File file, final File target,
+      final FileState previous) {
+    return new OutputStream() {
+      private byte[] buf = allocate();
+
+      private int count;
+
+      // contents too large for the buffer are written on the calling thread
+      private OutputStream stream;
+
+      private boolean closed;
+
+      @Override
+      public void write(int b) throws IOException {
+        OutputStream stream = getStream(1);
+        if (stream != null) {
+          stream.write(b);
+          return;
+        }
+        buf[count++] = (byte) b;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        OutputStream stream = getStream(len);
+        if (stream != null) {
+          stream.write(b, off, len);
+          return;
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+      }
+
+      private OutputStream getStream(int len) throws IOException {
+        if (closed) {
+          throw new IOException("Stream closed");
+        }
+        if (stream == null && count + len > buf.length) {
+          // writes of the same file must not overlap
+          await(file);
+          stream = callback.newOutputStream(file);
+          stream.write(buf, 0, count);
+          release(buf);
+          buf = null;
+        }
+        return stream;
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        if (stream != null) {
+          stream.close();
+        } else {
+          byte[] buf = this.buf;
+          this.buf = null;
+          submit(file, target, previous, buf, count);
+        }
+      }
+    };
+  }
+
+  private void submit(final File file, final File target, final FileState previous,
+      final byte[] buf, final int count) throws IOException {
+    // writes of the same file must not overlap
+    await(file);
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      release(buf);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    Future<Written> future;
+    try {
+      future = getExecutor().submit(new Callable<Written>() {
+        @Override
+        public Written call() throws IOException {
+          try {
+            MessageDigest digester = FileState.newDigester();
+            digester.update(buf, 0, count);
+            byte[] digest = digester.digest();
+            DigestingFileOutputStream.Result result = DigestingFileOutputStream.write(file, target,
+                previous, ByteBuffer.wrap(buf, 0, count), digest);
+            return new Written(file, digest, result);
+          } finally {
+            release(buf);
+            permits.release();
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      release(buf);
+      permits.release();
+      throw e;
+    }
+    synchronized (this) {
+      pending.put(file, future);
+    }
+  }
+
+  /**
+   * Waits for pending write of the file, if any.
+   */
+  public void await(File file) throws IOException {
+    Future<Written> future;
+    synchronized (this) {
+      future = pending.remove(file);
+    }
+    if (future != null) {
+      written(getResult(future));
+    }
+  }
+
+  /**
+   * Waits for all pending writes. If any write failed, the first failure is thrown after all
+   * writes completed, other failures are added to it as suppressed exceptions.
+   */
+  public void await() throws IOException {
+    List<Future<Written>> futures;
+    synchronized (this) {
+      futures = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    IOException failure = null;
+    for (Future<Written> future : futures) {
+      try {
+        written(getResult(future));
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void written(Written written) {
+    callback.written(written.file, written.digest, written.result);
+  }
+
+  private static Written getResult(Future<Written> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static byte[] allocate() {
+    byte[] buf = BUFFERS.poll();
+    return buf != null ? buf : new byte[BUFFER_SIZE];
+  }
+
+  private static void release(byte[] buf) {
+    // buffers are dropped when the pool is full
+    BUFFERS.offer(buf);
+  }
+}
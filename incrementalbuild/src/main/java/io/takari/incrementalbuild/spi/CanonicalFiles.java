@@ -0,0 +1,43 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonicalizes files using cached canonical form of their parent directories.
+ * <p>
+ * {@link File#getCanonicalFile()} resolves every path component, which takes a chain of
+ * {@code lstat}/{@code readlink} syscalls per file. Files registered with a build context tend to
+ * share few parent directories, so this implementation canonicalizes each parent directory once and
+ * only checks whether the file itself is a symbolic link. Directory changes made after a directory
+ * was canonicalized are not detected, which is why instances are expected to be used for the
+ * duration of a single build only.
+ */
+class CanonicalFiles {
+
+  // case-insensitive filesystems canonicalize file name case, which is not handled here
+  private static final boolean ENABLED = File.separatorChar == '/';
+
+  private final ConcurrentMap<File, File> directories = new ConcurrentHashMap<>();
+
+  public File canonicalize(File file) throws IOException {
+    final File absolute = file.getAbsoluteFile();
+    final File parent = absolute.getParentFile();
+    final String name = absolute.getName();
+    if (!ENABLED || parent == null || name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+      return absolute.getCanonicalFile();
+    }
+    File canonicalParent = directories.get(parent);
+    if (canonicalParent == null) {
+      canonicalParent = parent.getCanonicalFile();
+      directories.putIfAbsent(parent, canonicalParent);
+    }
+    if (Files.isSymbolicLink(absolute.toPath())) {
+      return absolute.getCanonicalFile();
+    }
+    return new File(canonicalParent, name);
+  }
+}
@@ -3,6 +3,9 @@ package io.takari.incrementalbuild.spi;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import io.takari.incrementalbuild.BasicBuildContext;
@@ -24,20 +27,17 @@ public class DefaultBasicBuildContext extends AbstractBuildContext implements Ba
   protected void finalizeContext() throws IOException {
     if (isProcessed()) {
       // delete all obsolete outputs
+      List<File> obsoleteOutputs = new ArrayList<>();
       for (File oldOutput : oldState.getOutputs()) {
         if (!state.isOutput(oldOutput)) {
-          deleteOutput(oldOutput);
+          obsoleteOutputs.add(oldOutput);
         }
       }
+      deleteOutputs(obsoleteOutputs);
     } else {
       // carry-over all metadata
       for (Object resource : oldState.getResources().keySet()) {
-        state.putResource(resource, oldState.getResource(resource));
-        state.setResourceMessages(resource, oldState.getResourceMessages(resource));
-        state.setResourceAttributes(resource, oldState.getResourceAttributes(resource));
-        if (oldState.isOutput(resource)) {
-          state.addOutput((File) resource);
-        }
+        state.carryOver(oldState, resource);
       }
     }
   }
@@ -70,6 +70,12 @@ public class DefaultBasicBuildContext extends AbstractBuildContext implements Ba
     return super.registerInput(inputFile);
   }
 
+  @Override
+  public List<DefaultResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException {
+    return super.registerInputs(inputFiles);
+  }
+
   @Override
   protected <T> DefaultResource<T> processResource(DefaultResourceMetadata<T> metadata) {
     throw new UnsupportedOperationException("BasicBuildContext does not support input processing");
@@ -80,4 +86,9 @@ public class DefaultBasicBuildContext extends AbstractBuildContext implements Ba
     // this context does not track input/output association, so lets make it clear to the users
     throw new UnsupportedOperationException();
   }
+
+  @Override
+  public Collection<File> getModifiedOutputs() {
+    return super.getModifiedOutputs();
+  }
 }
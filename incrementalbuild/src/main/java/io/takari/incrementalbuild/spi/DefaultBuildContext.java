@@ -1,13 +1,17 @@
 package io.takari.incrementalbuild.spi;
 
 import io.takari.incrementalbuild.BuildContext;
+import io.takari.incrementalbuild.InputSpec;
+import io.takari.incrementalbuild.ResourceProcessor;
 import io.takari.incrementalbuild.workspace.Workspace;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -28,6 +32,18 @@ public class DefaultBuildContext extends AbstractBuildContext implements BuildCo
     return super.registerAndProcessInputs(basedir, includes, excludes);
   }
 
+  @Override
+  public void registerAndProcessInputs(File basedir, Collection<String> includes,
+      Collection<String> excludes, ResourceProcessor processor) throws IOException {
+    super.registerAndProcessInputs(basedir, includes, excludes, processor);
+  }
+
+  @Override
+  public void processInputsInParallel(File basedir, Collection<String> includes,
+      Collection<String> excludes, ResourceProcessor processor) throws IOException {
+    super.processInputsInParallel(basedir, includes, excludes, processor);
+  }
+
   @Override
   protected void finalizeContext() throws IOException {
 
@@ -70,12 +86,9 @@ public class DefaultBuildContext extends AbstractBuildContext implements BuildCo
 
       // carry over
 
-      state.putResource(resource, oldState.getResource(resource));
-      state.setResourceMessages(resource, oldState.getResourceMessages(resource));
-      state.setResourceAttributes(resource, oldState.getResourceAttributes(resource));
+      state.carryOver(oldState, resource);
 
       Collection<File> oldOutputs = oldState.getResourceOutputs(resource);
-      state.setResourceOutputs(resource, oldOutputs);
       if (oldOutputs != null) {
         uptodateOldOutputs.addAll(oldOutputs);
       }
@@ -87,17 +100,16 @@ public class DefaultBuildContext extends AbstractBuildContext implements BuildCo
         throw new IllegalStateException();
       }
 
-      state.putResource(output, oldState.getResource(output));
-      state.addOutput(output);
-      state.setResourceMessages(output, oldState.getResourceMessages(output));
-      state.setResourceAttributes(output, oldState.getResourceAttributes(output));
+      state.carryOver(oldState, output);
     }
 
+    List<File> obsoleteOutputs = new ArrayList<>();
     for (File output : oldState.getOutputs()) {
       if (!state.isOutput(output)) {
-        deleteOutput(output);
+        obsoleteOutputs.add(output);
       }
     }
+    deleteOutputs(obsoleteOutputs);
   }
 
   @Override
@@ -105,17 +117,34 @@ public class DefaultBuildContext extends AbstractBuildContext implements BuildCo
     super.markSkipExecution();
   }
 
+  @Override
+  public Collection<File> getModifiedOutputs() {
+    return super.getModifiedOutputs();
+  }
+
   @Override
   public DefaultResourceMetadata<File> registerInput(File inputFile) {
     return super.registerInput(inputFile);
   }
 
+  @Override
+  public List<DefaultResourceMetadata<File>> registerInputs(Collection<File> inputFiles)
+      throws IOException {
+    return super.registerInputs(inputFiles);
+  }
+
   @Override
   public Collection<DefaultResourceMetadata<File>> registerInputs(File basedir,
       Collection<String> includes, Collection<String> excludes) throws IOException {
     return super.registerInputs(basedir, includes, excludes);
   }
 
+  @Override
+  public Map<InputSpec, Collection<DefaultResourceMetadata<File>>> registerInputSpecs(
+      Collection<InputSpec> specs) throws IOException {
+    return super.registerInputSpecs(specs);
+  }
+
   @Override
   protected void assertAssociation(DefaultResource<?> resource, DefaultOutput output) {
     Object input = resource.getResource();
@@ -13,18 +13,33 @@ import java.io.ObjectStreamClass;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.takari.incrementalbuild.InputSpec;
+import io.takari.incrementalbuild.MessageSeverity;
+import io.takari.incrementalbuild.workspace.Workspace;
+import io.takari.incrementalbuild.workspace.Workspace.FileVisitor;
+
+/**
+ * Incremental build state, i.e. resources, outputs and their metadata.
+ * <p>
+ * Instances are thread-safe, all methods synchronize on the instance. Collections returned by
+ * getters are not copied and must not be iterated while other threads modify the state.
+ */
 public class DefaultBuildContextState implements Serializable {
 
   private static final transient Logger log = LoggerFactory
@@ -47,6 +62,26 @@ public class DefaultBuildContextState implements Serializable {
 
   private final Map<Object, Collection<Message>> resourceMessages;
 
+  // outputs whose contents were created or changed by the build that produced this state. not
+  // persisted, only available for the duration of the build
+  private final transient Set<File> modifiedOutputs = new LinkedHashSet<>();
+
+  // input specs walked by the build that produced this state. only persisted as part of the state
+  // summary, see #isUpToDate
+  private final transient Set<InputSpec> inputSpecs = new LinkedHashSet<>();
+
+  // pure in-memory performance optimization, lazily built from and invalidated by changes to
+  // resources. file resource path -> file state, sorted to allow efficient per-directory lookup
+  private transient NavigableMap<String, FileState> fileStates;
+
+  // state of the previous build resources are carried over from, see #carryOver
+  private transient DefaultBuildContextState base;
+
+  // resources carried over from the base state and not modified since. the resources and their
+  // metadata are read from the base state and are only copied to this state when modified. the
+  // maps above never have entries for these resources
+  private final transient Set<Object> carried = new HashSet<>();
+
   private DefaultBuildContextState(Map<String, Serializable> configuration //
       , Map<Object, ResourceHolder<?>> inputs //
       , Set<File> outputs //
@@ -88,7 +123,9 @@ public class DefaultBuildContextState implements Serializable {
     );
   }
 
-  public String getStats() {
+  public synchronized String getStats() {
+    materialize();
+
     StringBuilder sb = new StringBuilder();
 
     sb.append(configuration.size()).append(' ');
@@ -102,36 +139,211 @@ public class DefaultBuildContextState implements Serializable {
     return sb.toString();
   }
 
-  public void storeTo(OutputStream os) throws IOException {
+  public synchronized void storeTo(OutputStream os) throws IOException {
     ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(os));
     try {
+      oos.writeObject(getSummary());
+
+      // carried over resources are written directly from the base state
       writeMap(oos, this.configuration);
-      writeCollection(oos, this.outputs);
-      writeMap(oos, this.resources);
+      writeCollection(oos, getCarriedOutputs(outputs));
+      writeMap(oos, this.resources, getCarried(resources));
 
-      writeMultimap(oos, resourceOutputs);
-      writeDoublemap(oos, resourceAttributes);
-      writeMultimap(oos, resourceMessages);
+      writeMultimap(oos, resourceOutputs, getCarried(resourceOutputs));
+      writeDoublemap(oos, resourceAttributes, getCarried(resourceAttributes));
+      writeMultimap(oos, resourceMessages, getCarried(resourceMessages));
 
     } finally {
       oos.flush();
     }
   }
 
-  private static void writeMap(ObjectOutputStream oos, Map<?, ?> map) throws IOException {
-    oos.writeInt(map.size());
-    for (Map.Entry<?, ?> entry : map.entrySet()) {
-      oos.writeObject(entry.getKey());
-      oos.writeObject(entry.getValue());
+  /**
+   * Returns entries of the base state map that belong to carried over resources.
+   */
+  private <V> Map<Object, V> getCarried(Map<Object, V> map) {
+    if (carried.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<Object, V> baseMap = getBaseMap(map);
+    Map<Object, V> result = new LinkedHashMap<>();
+    for (Object resource : carried) {
+      V value = baseMap.get(resource);
+      if (value != null) {
+        result.put(resource, value);
+      }
+    }
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <V> Map<Object, V> getBaseMap(Map<Object, V> map) {
+    if (map == resources) {
+      return (Map<Object, V>) base.resources;
+    } else if (map == resourceOutputs) {
+      return (Map<Object, V>) base.resourceOutputs;
+    } else if (map == resourceAttributes) {
+      return (Map<Object, V>) base.resourceAttributes;
+    } else if (map == resourceMessages) {
+      return (Map<Object, V>) base.resourceMessages;
+    }
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * Returns the outputs together with outputs carried over from the base state.
+   */
+  private Collection<File> getCarriedOutputs(Set<File> outputs) {
+    if (carried.isEmpty()) {
+      return outputs;
+    }
+    List<File> result = new ArrayList<>(outputs);
+    for (Object resource : carried) {
+      if (base.outputs.contains(resource)) {
+        result.add((File) resource);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns summary of this state, as stored at the beginning of the state file.
+   */
+  synchronized StateSummary getSummary() throws IOException {
+    Map<Object, ResourceHolder<?>> resources = getResources();
+    List<FileState> files = new ArrayList<>(resources.size());
+    for (ResourceHolder<?> holder : resources.values()) {
+      if (!(holder instanceof FileState)) {
+        files = null;
+        break;
+      }
+      files.add((FileState) holder);
+    }
+    Map<Object, Collection<Message>> messages = getResourceMessages();
+    int errors = 0;
+    for (Collection<Message> resourceMessages : messages.values()) {
+      for (Message message : resourceMessages) {
+        if (message.severity == MessageSeverity.ERROR) {
+          errors++;
+        }
+      }
+    }
+    return new StateSummary(resources.size(), getOutputs().size(), messages.size(), errors,
+        StateSummary.digestConfiguration(configuration), new ArrayList<>(inputSpecs), files);
+  }
+
+  /**
+   * Records input spec walked by the build. The basedir is expected to be normalized.
+   */
+  synchronized void addInputSpec(InputSpec spec) {
+    inputSpecs.add(spec);
+  }
+
+  /**
+   * Reads summary of the state stored in the state file, without reading the rest of the state.
+   *
+   * @return the summary or {@code null} if the state file does not exist or cannot be read
+   */
+  static StateSummary readSummary(File stateFile) {
+    try (ObjectInputStream is =
+        new ObjectInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+      return (StateSummary) is.readObject();
+    } catch (FileNotFoundException e) {
+      // this is expected, silently ignore
+    } catch (RuntimeException e) {
+      // this is a bug in our code, let it bubble up as build failure
+      throw e;
+    } catch (Exception e) {
+      // this is almost certainly caused by incompatible state file, log and continue
+      log.debug("Could not read incremental build state summary {}", stateFile, e);
+    }
+    return null;
+  }
+
+  /**
+   * Returns {@code true} if the state stored in the state file is up-to-date with respect to the
+   * given build configuration, i.e. the configuration did not change, all inputs and outputs are
+   * unchanged, there are no error messages and no matching files were added under basedirs of the
+   * input specs walked by the previous build. The input specs are walked again using the workspace.
+   * Inputs registered individually are only checked for changes.
+   * <p>
+   * The check only reads the state summary, the rest of the state is not read. States that cannot
+   * be read or have resources other than files are never up-to-date.
+   *
+   * @noreference this is public for use by build context environments only
+   */
+  public static boolean isUpToDate(Workspace workspace, File stateFile,
+      Map<String, Serializable> configuration) throws IOException {
+    StateSummary summary = readSummary(stateFile);
+    if (summary == null || summary.inputSpecs == null || summary.files == null) {
+      return false;
+    }
+    byte[] configurationDigest =
+        StateSummary.digestConfiguration(withConfiguration(configuration).configuration);
+    if (!Arrays.equals(summary.configurationDigest, configurationDigest)) {
+      return false;
+    }
+    if (summary.errors > 0) {
+      return false;
+    }
+
+    Parallel.Function<FileState, Boolean> isUnmodified =
+        new Parallel.Function<FileState, Boolean>() {
+          @Override
+          public Boolean apply(FileState fileState) {
+            // same as FilesystemWorkspace, File#lastModified is used to read file timestamps
+            return fileState.lastModified == fileState.file.lastModified()
+                && fileState.length == fileState.file.length();
+          }
+        };
+    if (Parallel.map(summary.getFileStates(), isUnmodified).contains(Boolean.FALSE)) {
+      return false;
+    }
+
+    final Set<File> files = new HashSet<>(Arrays.asList(summary.files));
+    final boolean[] added = new boolean[1];
+    for (InputSpec spec : summary.inputSpecs) {
+      final FileMatcher matcher =
+          FileMatcher.matcher(spec.getBasedir(), spec.getIncludes(), spec.getExcludes());
+      workspace.walk(spec.getBasedir(), new FileVisitor() {
+        @Override
+        public void visit(File file, long lastModified, long length,
+            Workspace.ResourceStatus status) {
+          if (!added[0] && matcher.matches(file) && !files.contains(file)) {
+            added[0] = true;
+          }
+        }
+      });
+      if (added[0]) {
+        return false;
+      }
     }
+    return true;
   }
 
-  private static void writeMultimap(ObjectOutputStream oos, Map<?, ? extends Collection<?>> mmap)
+  private static void writeMap(ObjectOutputStream oos, Map<?, ?> map) throws IOException {
+    writeMap(oos, map, Collections.emptyMap());
+  }
+
+  private static void writeMap(ObjectOutputStream oos, Map<?, ?> map, Map<?, ?> carried)
       throws IOException {
-    oos.writeInt(mmap.size());
-    for (Map.Entry<?, ? extends Collection<?>> entry : mmap.entrySet()) {
-      oos.writeObject(entry.getKey());
-      writeCollection(oos, entry.getValue());
+    oos.writeInt(map.size() + carried.size());
+    for (Map<?, ?> m : Arrays.asList(map, carried)) {
+      for (Map.Entry<?, ?> entry : m.entrySet()) {
+        oos.writeObject(entry.getKey());
+        oos.writeObject(entry.getValue());
+      }
+    }
+  }
+
+  private static void writeMultimap(ObjectOutputStream oos, Map<?, ? extends Collection<?>> mmap,
+      Map<?, ? extends Collection<?>> carried) throws IOException {
+    oos.writeInt(mmap.size() + carried.size());
+    for (Map<?, ? extends Collection<?>> m : Arrays.asList(mmap, carried)) {
+      for (Map.Entry<?, ? extends Collection<?>> entry : m.entrySet()) {
+        oos.writeObject(entry.getKey());
+        writeCollection(oos, entry.getValue());
+      }
     }
   }
 
@@ -147,12 +359,14 @@ public class DefaultBuildContextState implements Serializable {
     }
   }
 
-  private static void writeDoublemap(ObjectOutputStream oos, Map<?, ? extends Map<?, ?>> dmap)
-      throws IOException {
-    oos.writeInt(dmap.size());
-    for (Map.Entry<?, ? extends Map<?, ?>> entry : dmap.entrySet()) {
-      oos.writeObject(entry.getKey());
-      writeMap(oos, entry.getValue());
+  private static void writeDoublemap(ObjectOutputStream oos, Map<?, ? extends Map<?, ?>> dmap,
+      Map<?, ? extends Map<?, ?>> carried) throws IOException {
+    oos.writeInt(dmap.size() + carried.size());
+    for (Map<?, ? extends Map<?, ?>> m : Arrays.asList(dmap, carried)) {
+      for (Map.Entry<?, ? extends Map<?, ?>> entry : m.entrySet()) {
+        oos.writeObject(entry.getKey());
+        writeMap(oos, entry.getValue());
+      }
     }
   }
 
@@ -165,6 +379,21 @@ public class DefaultBuildContextState implements Serializable {
       return DefaultBuildContextState.emptyState();
     }
 
+    final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+    DefaultBuildContextState state = StatePrefetcher.take(stateFile, classLoader);
+    if (state != null) {
+      return state;
+    }
+
+    return loadFrom(stateFile, classLoader);
+  }
+
+  /**
+   * Loads state from the state file, resolving state classes using provided class loader first.
+   * Unlike {@link #loadFrom(File)} this does not depend on the calling thread.
+   */
+  static DefaultBuildContextState loadFrom(File stateFile, final ClassLoader classLoader) {
     try {
       ObjectInputStream is =
           new ObjectInputStream(new BufferedInputStream(new FileInputStream(stateFile))) {
@@ -173,8 +402,7 @@ public class DefaultBuildContextState implements Serializable {
                 ClassNotFoundException {
               // TODO does it matter if TCCL or super is called first?
               try {
-                ClassLoader tccl = Thread.currentThread().getContextClassLoader();
-                Class<?> clazz = tccl.loadClass(desc.getName());
+                Class<?> clazz = classLoader.loadClass(desc.getName());
                 return clazz;
               } catch (ClassNotFoundException e) {
                 return super.resolveClass(desc);
@@ -184,6 +412,7 @@ public class DefaultBuildContextState implements Serializable {
       try {
         final long start = System.currentTimeMillis();
 
+        StateSummary summary = (StateSummary) is.readObject();
         Map<String, Serializable> configuration = readMap(is);
         Set<File> outputs = readSet(is);
         Map<Object, ResourceHolder<?>> resources = readMap(is);
@@ -201,7 +430,7 @@ public class DefaultBuildContextState implements Serializable {
             , resourceAttributes //
             , messages //
             );
-        log.debug("Loaded incremental build state {} ({} ms)", stateFile,
+        log.debug("Loaded incremental build state {}, {} ({} ms)", stateFile, summary,
             System.currentTimeMillis() - start);
         return state;
       } finally {
@@ -299,75 +528,236 @@ public class DefaultBuildContextState implements Serializable {
     return Collections.unmodifiableMap(inverted);
   }
 
+  //
+  // carry-over
+  //
+
+  /**
+   * Carries over the resource and all its metadata, including output status and associated
+   * outputs, from the state of the previous build. Unless the resource is already known to this
+   * state, nothing is copied until the resource is modified, i.e. carry-over of unchanged resources
+   * does not allocate per-resource maps and collections.
+   */
+  public synchronized void carryOver(DefaultBuildContextState base, Object resource) {
+    if (this.base == null) {
+      this.base = base;
+    } else if (this.base != base) {
+      throw new IllegalArgumentException();
+    }
+    fileStates = null;
+    if (carried.contains(resource)) {
+      return;
+    }
+    if (outputs.contains(resource) || resourceOutputs.containsKey(resource)
+        || resourceAttributes.containsKey(resource) || resourceMessages.containsKey(resource)) {
+      copy(resource);
+    } else {
+      // registered holder, if any, is replaced by the holder of the previous build
+      resources.remove(resource);
+      carried.add(resource);
+    }
+  }
+
+  /**
+   * Returns {@code true} if this state consists solely of resources carried over from the given
+   * state without changes, i.e. this state is the same as the given state.
+   */
+  synchronized boolean isCarriedOver(DefaultBuildContextState base) {
+    return this.base == base && resources.isEmpty() && outputs.isEmpty()
+        && resourceOutputs.isEmpty() && resourceAttributes.isEmpty() && resourceMessages.isEmpty()
+        && carried.size() == base.resources.size() && configuration.equals(base.configuration);
+  }
+
+  /**
+   * Copies carried over resource from the base state, so it can be modified.
+   */
+  private void materialize(Object resource) {
+    if (carried.remove(resource)) {
+      copy(resource);
+    }
+  }
+
+  /**
+   * Copies all carried over resources from the base state.
+   */
+  private void materialize() {
+    if (!carried.isEmpty()) {
+      for (Object resource : new ArrayList<>(carried)) {
+        materialize(resource);
+      }
+    }
+  }
+
+  private void copy(Object resource) {
+    ResourceHolder<?> holder = base.resources.get(resource);
+    if (holder != null) {
+      resources.put(resource, holder);
+    } else {
+      resources.remove(resource);
+    }
+    if (base.outputs.contains(resource)) {
+      outputs.add((File) resource);
+    }
+    removeResourceOutputs(resource);
+    Collection<File> oldOutputs = base.resourceOutputs.get(resource);
+    if (oldOutputs != null) {
+      for (File output : oldOutputs) {
+        putResourceOutput(resource, output);
+      }
+    }
+    Map<String, Serializable> attributes = base.resourceAttributes.get(resource);
+    setResourceAttributes(resource,
+        attributes != null ? new LinkedHashMap<String, Serializable>(attributes) : null);
+    Collection<Message> messages = base.resourceMessages.get(resource);
+    setResourceMessages(resource,
+        messages != null ? new LinkedHashSet<Message>(messages) : null);
+  }
+
   //
   // getters and settings
   //
 
   // resources
 
-  public void putResource(Object resource, ResourceHolder<?> holder) {
+  public synchronized void putResource(Object resource, ResourceHolder<?> holder) {
+    materialize(resource);
+    fileStates = null;
     resources.put(resource, holder);
   }
 
-  public ResourceHolder<?> getResource(Object resource) {
+  public synchronized ResourceHolder<?> getResource(Object resource) {
+    if (carried.contains(resource)) {
+      return base.resources.get(resource);
+    }
     return resources.get(resource);
   }
 
-  public boolean isResource(Object resource) {
+  public synchronized boolean isResource(Object resource) {
+    if (carried.contains(resource)) {
+      return base.resources.containsKey(resource);
+    }
     return resources.containsKey(resource);
   }
 
-  public ResourceHolder<?> removeResource(Object resource) {
+  public synchronized ResourceHolder<?> removeResource(Object resource) {
+    materialize(resource);
+    fileStates = null;
     return resources.remove(resource);
   }
 
-  public Map<Object, ResourceHolder<?>> getResources() {
-    return Collections.unmodifiableMap(resources);
+  public synchronized Map<Object, ResourceHolder<?>> getResources() {
+    if (carried.isEmpty()) {
+      return Collections.unmodifiableMap(resources);
+    }
+    Map<Object, ResourceHolder<?>> result = new HashMap<>(resources);
+    result.putAll(getCarried(resources));
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * Returns states of all file resources located under the specified directory, i.e. in the
+   * directory itself or any of its subdirectories. The directory is expected to be normalized the
+   * same way as the file resources.
+   */
+  synchronized Collection<FileState> getFileStates(File basedir) {
+    NavigableMap<String, FileState> fileStates = this.fileStates;
+    if (fileStates == null) {
+      fileStates = new TreeMap<>();
+      for (ResourceHolder<?> holder : resources.values()) {
+        if (holder instanceof FileState) {
+          FileState fileState = (FileState) holder;
+          fileStates.put(fileState.file.getPath(), fileState);
+        }
+      }
+      for (Object resource : carried) {
+        ResourceHolder<?> holder = base.resources.get(resource);
+        if (holder instanceof FileState) {
+          FileState fileState = (FileState) holder;
+          fileStates.put(fileState.file.getPath(), fileState);
+        }
+      }
+      this.fileStates = fileStates;
+    }
+    String path = basedir.getPath();
+    if (!path.endsWith(File.separator)) {
+      path = path + File.separator;
+    }
+    // all paths that start with "basedir/" sort between "basedir/" and "basedir" + ('/' + 1)
+    String upperBound = path.substring(0, path.length() - 1) + (char) (File.separatorChar + 1);
+    return fileStates.subMap(path, true, upperBound, false).values();
   }
 
   // outputInputs
 
-  public Collection<Object> getOutputInputs(File outputFile) {
+  public synchronized Collection<Object> getOutputInputs(File outputFile) {
+    materialize();
     return outputInputs.get(outputFile);
   }
 
   // outputs
 
-  public Collection<File> getOutputs() {
-    return Collections.unmodifiableCollection(outputs);
+  public synchronized Collection<File> getOutputs() {
+    return Collections.unmodifiableCollection(getCarriedOutputs(outputs));
   }
 
-  public boolean isOutput(Object outputFile) {
+  public synchronized boolean isOutput(Object outputFile) {
+    if (carried.contains(outputFile)) {
+      return base.outputs.contains(outputFile);
+    }
     return outputs.contains(outputFile);
   }
 
-  public boolean addOutput(File output) {
+  public synchronized boolean addOutput(File output) {
+    materialize(output);
     return outputs.add(output);
   }
 
-  public boolean removeOutput(File output) {
+  public synchronized boolean removeOutput(File output) {
+    materialize(output);
+    modifiedOutputs.remove(output);
     return outputs.remove(output);
   }
 
+  // modifiedOutputs
+
+  public synchronized boolean addModifiedOutput(File output) {
+    return modifiedOutputs.add(output);
+  }
+
+  public synchronized boolean isModifiedOutput(File output) {
+    return modifiedOutputs.contains(output);
+  }
+
+  public synchronized Collection<File> getModifiedOutputs() {
+    return Collections.unmodifiableCollection(modifiedOutputs);
+  }
+
   // resourceOutputs
 
-  public boolean putResourceOutput(Object resource, File output) {
+  public synchronized boolean putResourceOutput(Object resource, File output) {
+    materialize(resource);
     put(outputInputs, output, resource);
     return put(resourceOutputs, resource, output);
   }
 
-  public Collection<File> getResourceOutputs(Object resource) {
+  public synchronized Collection<File> getResourceOutputs(Object resource) {
+    if (carried.contains(resource)) {
+      return base.resourceOutputs.get(resource);
+    }
     return resourceOutputs.get(resource);
   }
 
-  public Collection<File> setResourceOutputs(Object resource, Collection<File> outputs) {
+  public synchronized Collection<File> setResourceOutputs(Object resource,
+      Collection<File> outputs) {
+    materialize(resource);
     if (outputs == null || outputs.isEmpty()) {
       return resourceOutputs.remove(resource);
     }
     return resourceOutputs.put(resource, outputs);
   }
 
-  public Collection<File> removeResourceOutputs(Object resource) {
+  public synchronized Collection<File> removeResourceOutputs(Object resource) {
+    materialize(resource);
     Collection<File> outputs = resourceOutputs.remove(resource);
     removeOutputInputs(outputs, resource);
     return outputs;
@@ -390,15 +780,21 @@ public class DefaultBuildContextState implements Serializable {
 
   // resourceAttributes
 
-  public Map<String, Serializable> removeResourceAttributes(Object resource) {
+  public synchronized Map<String, Serializable> removeResourceAttributes(Object resource) {
+    materialize(resource);
     return resourceAttributes.remove(resource);
   }
 
-  public Map<String, Serializable> getResourceAttributes(Object resource) {
+  public synchronized Map<String, Serializable> getResourceAttributes(Object resource) {
+    if (carried.contains(resource)) {
+      return base.resourceAttributes.get(resource);
+    }
     return resourceAttributes.get(resource);
   }
 
-  public Serializable putResourceAttribute(Object resource, String key, Serializable value) {
+  public synchronized Serializable putResourceAttribute(Object resource, String key,
+      Serializable value) {
+    materialize(resource);
     Map<String, Serializable> attributes = resourceAttributes.get(resource);
     if (attributes == null) {
       attributes = new LinkedHashMap<String, Serializable>();
@@ -407,13 +803,14 @@ public class DefaultBuildContextState implements Serializable {
     return attributes.put(key, value);
   }
 
-  public Serializable getResourceAttribute(Object resource, String key) {
-    Map<String, Serializable> attributes = resourceAttributes.get(resource);
+  public synchronized Serializable getResourceAttribute(Object resource, String key) {
+    Map<String, Serializable> attributes = getResourceAttributes(resource);
     return attributes != null ? attributes.get(key) : null;
   }
 
-  public Map<String, Serializable> setResourceAttributes(Object resource,
+  public synchronized Map<String, Serializable> setResourceAttributes(Object resource,
       Map<String, Serializable> attributes) {
+    materialize(resource);
     if (attributes == null || attributes.isEmpty()) {
       return resourceAttributes.remove(resource);
     }
@@ -422,27 +819,39 @@ public class DefaultBuildContextState implements Serializable {
 
   // resourceMessages
 
-  public Collection<Message> removeResourceMessages(Object resource) {
+  public synchronized Collection<Message> removeResourceMessages(Object resource) {
+    materialize(resource);
     return resourceMessages.remove(resource);
   }
 
-  public Collection<Message> getResourceMessages(Object resource) {
+  public synchronized Collection<Message> getResourceMessages(Object resource) {
+    if (carried.contains(resource)) {
+      return base.resourceMessages.get(resource);
+    }
     return resourceMessages.get(resource);
   }
 
-  public Collection<Message> setResourceMessages(Object resource, Collection<Message> messages) {
+  public synchronized Collection<Message> setResourceMessages(Object resource,
+      Collection<Message> messages) {
+    materialize(resource);
     if (messages == null || messages.isEmpty()) {
       return resourceMessages.remove(resource);
     }
     return resourceMessages.put(resource, messages);
   }
 
-  public boolean addResourceMessage(Object resource, Message message) {
+  public synchronized boolean addResourceMessage(Object resource, Message message) {
+    materialize(resource);
     return put(resourceMessages, resource, message);
   }
 
-  public Map<Object, Collection<Message>> getResourceMessages() {
-    return Collections.unmodifiableMap(resourceMessages);
+  public synchronized Map<Object, Collection<Message>> getResourceMessages() {
+    if (carried.isEmpty()) {
+      return Collections.unmodifiableMap(resourceMessages);
+    }
+    Map<Object, Collection<Message>> result = new HashMap<>(resourceMessages);
+    result.putAll(getCarried(resourceMessages));
+    return Collections.unmodifiableMap(result);
   }
 
   private static <K, V> boolean put(Map<K, Collection<V>> multimap, K key, V value) {
@@ -5,6 +5,11 @@ import io.takari.incrementalbuild.Output;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * @noinstantiate clients are not expected to instantiate this class
@@ -20,6 +25,132 @@ public class DefaultOutput extends DefaultResource<File> implements Output<File>
     return context.newOutputStream(this);
   }
 
+  /**
+   * Returns new {@link Writer} that encodes characters using the specified charset and writes them
+   * to {@link #newOutputStream()}. Malformed and unmappable characters are replaced with the
+   * charset's default replacement, same as {@link java.io.OutputStreamWriter}. The writer is
+   * buffered.
+   */
+  public Writer newWriter(Charset charset) throws IOException {
+    if (charset == null) {
+      throw new IllegalArgumentException();
+    }
+    return new OutputWriter(newOutputStream(), charset);
+  }
+
+  /**
+   * Returns new {@link Writer} that encodes characters using the specified charset. Uses
+   * {@link #newWriter(Charset)} for outputs of build contexts provided by this library, characters
+   * are written to {@link Output#newOutputStream()} of other outputs.
+   */
+  public static Writer newWriter(Output<?> output, Charset charset) throws IOException {
+    if (output instanceof DefaultOutput) {
+      return ((DefaultOutput) output).newWriter(charset);
+    }
+    if (charset == null) {
+      throw new IllegalArgumentException();
+    }
+    return new OutputWriter(output.newOutputStream(), charset);
+  }
+
+  /**
+   * Replaces output contents with contents of the {@code source} file. This is equivalent to
+   * copying the file to {@link #newOutputStream()}, but does not rewrite the output if it already
+   * has the same contents and lets the operating system copy the file without moving the bytes
+   * through the Java heap where possible.
+   */
+  public void copyFrom(File source) throws IOException {
+    if (source == null) {
+      throw new IllegalArgumentException();
+    }
+    copyFrom(source.toPath());
+  }
+
+  /**
+   * @see #copyFrom(File)
+   */
+  public void copyFrom(Path source) throws IOException {
+    if (source == null) {
+      throw new IllegalArgumentException();
+    }
+    context.copyOutput(this, source);
+  }
+
+  /**
+   * Replaces output contents with contents of the {@code source} file. Uses
+   * {@link #copyFrom(File)} for outputs of build contexts provided by this library, the file is
+   * copied to {@link Output#newOutputStream()} of other outputs.
+   */
+  public static void copyFrom(Output<?> output, File source) throws IOException {
+    if (source == null) {
+      throw new IllegalArgumentException();
+    }
+    copyFrom(output, source.toPath());
+  }
+
+  /**
+   * @see #copyFrom(Output, File)
+   */
+  public static void copyFrom(Output<?> output, Path source) throws IOException {
+    if (output instanceof DefaultOutput) {
+      ((DefaultOutput) output).copyFrom(source);
+      return;
+    }
+    if (source == null) {
+      throw new IllegalArgumentException();
+    }
+    try (OutputStream os = output.newOutputStream()) {
+      Files.copy(source, os);
+    }
+  }
+
+  /**
+   * Replaces output contents with remaining bytes of the {@code contents} buffer. This is
+   * equivalent to writing the same bytes to {@link #newOutputStream()}, but compares contents size
+   * with the existing output before reading any data and avoids copying the buffer. The buffer
+   * position is advanced to its limit.
+   */
+  public void write(ByteBuffer contents) throws IOException {
+    if (contents == null) {
+      throw new IllegalArgumentException();
+    }
+    context.writeOutput(this, contents);
+  }
+
+  /**
+   * Replaces output contents with remaining bytes of the {@code contents} buffer. Uses
+   * {@link #write(ByteBuffer)} for outputs of build contexts provided by this library, contents
+   * are written to {@link Output#newOutputStream()} of other outputs.
+   */
+  public static void write(Output<?> output, ByteBuffer contents) throws IOException {
+    if (output instanceof DefaultOutput) {
+      ((DefaultOutput) output).write(contents);
+      return;
+    }
+    try (OutputStream os = output.newOutputStream()) {
+      writeTo(os, contents);
+    }
+  }
+
+  /**
+   * Writes remaining bytes of the buffer to the stream, without an intermediate copy for heap
+   * buffers.
+   */
+  static void writeTo(OutputStream os, ByteBuffer contents) throws IOException {
+    if (contents.hasArray()) {
+      os.write(contents.array(), contents.arrayOffset() + contents.position(),
+          contents.remaining());
+      contents.position(contents.limit());
+    } else {
+      byte[] buf = new byte[Math.min(contents.remaining(), IncrementalFileOutputStream.BUF_SIZE)];
+      while (contents.hasRemaining()) {
+        int len = Math.min(buf.length, contents.remaining());
+        contents.get(buf, 0, len);
+        os.write(buf, 0, len);
+      }
+    }
+  }
+
   // @Override
   // public <I> void associateInput(ResourceMetadata<I> input) {
   // context.associate((DefaultResourceMetadata<?>) input, this);
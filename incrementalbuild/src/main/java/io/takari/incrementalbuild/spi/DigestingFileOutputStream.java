@@ -0,0 +1,388 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Output stream that only replaces destination file if digest of the new contents is different
+ * from the digest recorded by the previous build. Unlike {@link IncrementalFileOutputStream}, the
+ * existing file is not read unless it was changed since the previous build or the previous build
+ * did not record the digest.
+ * <p>
+ * Written bytes are kept in memory up to {@link #MEMORY_THRESHOLD} and spilled to a temporary file
+ * beyond that, see {@link #newSpillFile()}. When the stream is closed, new contents are either
+ * discarded or moved in place of the destination file. Temporary files are created with
+ * default permissions and get POSIX permissions of the existing destination file before the move,
+ * so replaced files keep their mode, including the executable bit.
+ * <p>
+ * Changed contents can be written to a separate target file, in which case the destination file is
+ * only used to determine if the contents changed and is left intact.
+ * <p>
+ * Timestamp and length of the file are captured when the stream is closed, so callers do not need
+ * to query the filesystem again.
+ */
+class DigestingFileOutputStream extends OutputStream {
+
+  /**
+   * Outcome of writing a file.
+   */
+  static class Result {
+    /**
+     * {@code true} if the file was created or replaced.
+     */
+    final boolean modified;
+
+    /**
+     * Timestamp of the file after it was written, as returned by {@link File#lastModified()}.
+     */
+    final long lastModified;
+
+    final long length;
+
+    /**
+     * Digest of the file contents if it was computed while writing the file, otherwise
+     * {@code null}.
+     */
+    final byte[] digest;
+
+    Result(boolean modified, long lastModified, long length) {
+      this(modified, lastModified, length, null);
+    }
+
+    Result(boolean modified, long lastModified, long length, byte[] digest) {
+      this.modified = modified;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.digest = digest;
+    }
+  }
+
+  static final int MEMORY_THRESHOLD = 64 * 1024;
+
+  private final File file;
+
+  private final File target;
+
+  private final FileState previous;
+
+  private final MessageDigest digester = FileState.newDigester();
+
+  private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+  private Path tempFile;
+
+  private OutputStream tempStream;
+
+  private long size;
+
+  private byte[] digest;
+
+  private Result result;
+
+  private boolean closed;
+
+  /**
+   * @param previous is the state of the file recorded by the previous build, can be {@code null}
+   */
+  public DigestingFileOutputStream(File file, FileState previous) {
+    this(file, file, previous);
+  }
+
+  /**
+   * @param target is the file changed contents are written to
+   * @param previous is the state of the file recorded by the previous build, can be {@code null}
+   */
+  public DigestingFileOutputStream(File file, File target, FileState previous) {
+    if (file == null || target == null) {
+      throw new IllegalArgumentException("output file not specified");
+    }
+    this.file = file;
+    this.target = target;
+    this.previous = previous;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    getStream(1).write(b);
+    digester.update((byte) b);
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    getStream(len).write(b, off, len);
+    digester.update(b, off, len);
+    size += len;
+  }
+
+  private OutputStream getStream(int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (tempStream == null && size + len > MEMORY_THRESHOLD) {
+      tempFile = newSpillFile();
+      tempStream = newStream(tempFile);
+      memory.writeTo(tempStream);
+      memory = null;
+    }
+    return tempStream != null ? tempStream : memory;
+  }
+
+  /**
+   * Creates the file written bytes are spilled to once they exceed {@link #MEMORY_THRESHOLD}. The
+   * file is moved in place of the target file when the stream is closed and is left behind if the
+   * stream is never closed. Creates the file next to the target file, so it can be moved
+   * atomically.
+   */
+  protected Path newSpillFile() throws IOException {
+    return createTempFile(target);
+  }
+
+  private static OutputStream newStream(Path file) throws IOException {
+    return new BufferedOutputStream(Files.newOutputStream(file),
+        IncrementalFileOutputStream.BUF_SIZE);
+  }
+
+  /**
+   * Creates an empty hidden file in the directory of the file, named after the file.
+   */
+  static Path createTempFile(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    // same directory as the destination file, so it can be moved atomically. unlike
+    // Files#createTempFile, the file is created with default rather than owner-only permissions
+    Path directory = parent.toPath();
+    while (true) {
+      long random = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+      Path tempFile = directory.resolve("." + file.getName() + random + ".tmp");
+      try {
+        return Files.createFile(tempFile);
+      } catch (FileAlreadyExistsException e) {
+        // try another name
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    digest = digester.digest();
+    try {
+      if (tempStream != null) {
+        tempStream.close();
+      }
+      result = getUnchanged(file, previous, size, digest, null);
+      if (result != null) {
+        return;
+      }
+      if (tempFile == null) {
+        tempFile = createTempFile(target);
+        try (OutputStream os = newStream(tempFile)) {
+          memory.writeTo(os);
+        }
+      }
+      result = move(tempFile, file, target, size);
+      tempFile = null;
+    } finally {
+      memory = null;
+      if (tempFile != null) {
+        Files.deleteIfExists(tempFile);
+      }
+    }
+  }
+
+  /**
+   * Writes remaining contents of the buffer to the file, unless the file already has the same
+   * contents. Unlike the stream, the size of new contents is known up front and contents of large
+   * files are compared against a memory mapping of the file rather than read and digested.
+   *
+   * @param target is the file changed contents are written to, usually the file itself
+   * @param digest is the digest of the remaining contents of the buffer
+   */
+  public static Result write(File file, File target, FileState previous, ByteBuffer contents,
+      byte[] digest) throws IOException {
+    final int size = contents.remaining();
+    Result result = getUnchanged(file, previous, size, digest, contents);
+    if (result == null) {
+      Path tempFile = createTempFile(target);
+      try {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+          ByteBuffer src = contents.duplicate();
+          while (src.hasRemaining()) {
+            channel.write(src);
+          }
+        }
+        result = move(tempFile, file, target, size);
+        tempFile = null;
+      } finally {
+        if (tempFile != null) {
+          Files.deleteIfExists(tempFile);
+        }
+      }
+    }
+    contents.position(contents.limit());
+    return result;
+  }
+
+  /**
+   * Copies the source file to the file, unless the file already has the same contents. The source
+   * is only digested up front if it has the same size as the file. Changed contents are copied with
+   * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which allows
+   * the operating system to copy the contents without passing them through the Java heap. Contents
+   * of different size are digested from the copy afterwards.
+   *
+   * @param target is the file changed contents are written to, usually the file itself
+   */
+  public static Result copy(Path source, File file, File target, FileState previous)
+      throws IOException {
+    try (FileChannel from = FileChannel.open(source, StandardOpenOption.READ)) {
+      long size = from.size();
+      byte[] digest = null;
+      if (file.length() == size) {
+        digest = FileState.digest(source);
+        Result unchanged = getUnchanged(file, previous, size, digest, null);
+        if (unchanged != null) {
+          return new Result(false, unchanged.lastModified, unchanged.length, digest);
+        }
+      }
+      Path tempFile = createTempFile(target);
+      try {
+        try (FileChannel to = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+          long position = 0;
+          while (position < size) {
+            long count = from.transferTo(position, size - position, to);
+            if (count <= 0) {
+              break; // source was truncated while it was copied
+            }
+            position += count;
+          }
+          size = position;
+        }
+        if (digest == null) {
+          digest = FileState.digest(tempFile);
+        }
+        Result result = move(tempFile, file, target, size);
+        tempFile = null;
+        return new Result(true, result.lastModified, result.length, digest);
+      } finally {
+        if (tempFile != null) {
+          Files.deleteIfExists(tempFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the outcome of leaving the file as is, or {@code null} if the file does not have the
+   * new contents.
+   *
+   * @param contents is the new contents, if available in memory, can be {@code null}
+   */
+  private static Result getUnchanged(File file, FileState previous, long size, byte[] digest,
+      ByteBuffer contents) throws IOException {
+    final long lastModified = file.lastModified();
+    final long length = file.length();
+    return isUnchanged(file, lastModified, length, previous, size, digest, contents)
+        ? new Result(false, lastModified, length)
+        : null;
+  }
+
+  private static boolean isUnchanged(File file, long lastModified, long length,
+      FileState previous, long size, byte[] digest, ByteBuffer contents) throws IOException {
+    if (lastModified == 0L || length != size) {
+      return false; // file does not exist or has different length
+    }
+    if (previous != null && previous.digest != null && previous.lastModified == lastModified
+        && previous.length == length) {
+      // the file did not change since the previous build, trust the recorded digest
+      return Arrays.equals(previous.digest, digest);
+    }
+    if (contents != null && size >= IncrementalFileOutputStream.MAP_THRESHOLD
+        && size <= Integer.MAX_VALUE) {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return IncrementalFileOutputStream.mismatch(mapped, 0, contents, contents.position(),
+            (int) size) < 0;
+      }
+    }
+    return Arrays.equals(FileState.digest(file), digest);
+  }
+
+  /**
+   * Moves the temporary file with new contents in place of the target file. The temporary file gets
+   * permissions of the existing file first.
+   */
+  private static Result move(Path tempFile, File file, File target, long size)
+      throws IOException {
+    copyPermissions(file.toPath(), tempFile);
+    File parent = target.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    // move does not change the timestamp, read it from the temporary file
+    final long lastModified = tempFile.toFile().lastModified();
+    move(tempFile, target.toPath());
+    return new Result(true, lastModified, size);
+  }
+
+  /**
+   * Copies POSIX permissions of the source file, if it exists, to the target file.
+   */
+  static void copyPermissions(Path source, Path target) throws IOException {
+    PosixFileAttributeView view = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+    if (view == null) {
+      return; // not a POSIX filesystem
+    }
+    try {
+      Files.setPosixFilePermissions(target, view.readAttributes().permissions());
+    } catch (NoSuchFileException e) {
+      // new file, keep default permissions
+    }
+  }
+
+  static void move(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Returns digest of the contents written to this stream. Only available after the stream was
+   * closed.
+   */
+  public byte[] getDigest() {
+    return digest;
+  }
+
+  /**
+   * Returns the outcome of writing the destination file. Only available after the stream was
+   * closed.
+   */
+  public Result getResult() {
+    return result;
+  }
+}
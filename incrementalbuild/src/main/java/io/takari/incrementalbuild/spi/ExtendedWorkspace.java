@@ -0,0 +1,35 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import io.takari.incrementalbuild.workspace.Workspace;
+
+/**
+ * Optional {@link Workspace} capabilities used by build contexts when available. Workspace
+ * implementations that do not implement this interface are accessed through {@link Workspace} API
+ * only.
+ */
+public interface ExtendedWorkspace extends Workspace {
+
+  /**
+   * Returns {@code true} if the file is managed directly on the filesystem, i.e. build context can
+   * create and replace the file using {@code java.nio.file} API without going through this
+   * workspace.
+   */
+  public boolean isFilesystem(File file);
+
+  /**
+   * Batch equivalent of {@link #processOutput(File)}. Build contexts call this once per build,
+   * after the outputs were written, with outputs whose contents were created or changed.
+   */
+  public void processOutputs(Collection<File> outputFiles);
+
+  /**
+   * Batch equivalent of {@link #deleteFile(File)}. Implementations are free to delete the files in
+   * any order, including in parallel.
+   */
+  public void deleteFiles(Collection<File> files) throws IOException;
+
+}
@@ -3,6 +3,12 @@ package io.takari.incrementalbuild.spi;
 import io.takari.incrementalbuild.ResourceStatus;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 class FileState implements ResourceHolder<File> {
 
@@ -14,7 +20,17 @@ class FileState implements ResourceHolder<File> {
 
   final long length;
 
+  /**
+   * Digest of the file contents, {@code null} if not known. Only recorded for outputs written
+   * through build context.
+   */
+  final byte[] digest;
+
   public FileState(File file, long lastModified, long length) {
+    this(file, lastModified, length, null);
+  }
+
+  public FileState(File file, long lastModified, long length, byte[] digest) {
     if (file == null) {
       // throw new IllegalArgumentException("File does not exist or cannot be read " + file);
       throw new NullPointerException();
@@ -23,6 +39,31 @@ class FileState implements ResourceHolder<File> {
     this.file = file;
     this.lastModified = lastModified;
     this.length = length;
+    this.digest = digest;
+  }
+
+  static MessageDigest newDigester() {
+    try {
+      return MessageDigest.getInstance("SHA1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Unsupported JVM", e);
+    }
+  }
+
+  static byte[] digest(File file) throws IOException {
+    return digest(file.toPath());
+  }
+
+  static byte[] digest(Path file) throws IOException {
+    MessageDigest digester = newDigester();
+    byte[] buf = new byte[IncrementalFileOutputStream.BUF_SIZE];
+    try (InputStream is = Files.newInputStream(file)) {
+      int n;
+      while ((n = is.read(buf)) > 0) {
+        digester.update(buf, 0, n);
+      }
+    }
+    return digester.digest();
   }
 
   @Override
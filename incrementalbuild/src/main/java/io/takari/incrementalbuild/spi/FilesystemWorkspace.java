@@ -8,10 +8,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
 
 import io.takari.incrementalbuild.workspace.Workspace;
 
-public class FilesystemWorkspace implements Workspace {
+public class FilesystemWorkspace implements ExtendedWorkspace {
 
   @Override
   public Mode getMode() {
@@ -30,14 +32,33 @@ public class FilesystemWorkspace implements Workspace {
     }
   }
 
+  @Override
+  public void deleteFiles(Collection<File> files) throws IOException {
+    Parallel.map(new ArrayList<>(files), new Parallel.Function<File, Void>() {
+      @Override
+      public Void apply(File file) throws IOException {
+        deleteFile(file);
+        return null;
+      }
+    });
+  }
+
   @Override
   public void processOutput(File outputFile) {}
 
+  @Override
+  public void processOutputs(Collection<File> outputFiles) {}
+
   @Override
   public OutputStream newOutputStream(File file) throws IOException {
     return new IncrementalFileOutputStream(file);
   }
 
+  @Override
+  public boolean isFilesystem(File file) {
+    return true;
+  }
+
   @Override
   public ResourceStatus getResourceStatus(File file, long lastModified, long length) {
     if (!isPresent(file)) {
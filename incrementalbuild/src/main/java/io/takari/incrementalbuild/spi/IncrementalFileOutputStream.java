@@ -9,19 +9,50 @@ package io.takari.incrementalbuild.spi;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Output stream that only modifies destination file if new file contents actually changed.
+ * <p>
+ * Written bytes are buffered and compared with existing file contents in {@link #BUF_SIZE} blocks.
+ * Once a difference is found, the rest of the file is overwritten without comparison. Existing
+ * files of {@link #MAP_THRESHOLD} bytes or more are compared against a memory mapping of the file
+ * instead.
  */
 class IncrementalFileOutputStream extends OutputStream {
 
   public static final int BUF_SIZE = 1024 * 16;
 
-  private final RandomAccessFile raf;
+  public static final int MAP_THRESHOLD = 1024 * 1024;
 
+  // mapped files cannot be truncated on windows until the mapping is garbage collected
+  private static final boolean MAP_ENABLED = File.separatorChar == '/';
+
+  private final FileChannel channel;
+
+  /**
+   * Bytes written to this stream but not yet compared/written to the file.
+   */
   private final byte[] buffer;
 
+  private int count;
+
+  /**
+   * Existing file contents read for comparison.
+   */
+  private final ByteBuffer readBuffer;
+
+  /**
+   * Existing file contents mapped for comparison, {@code null} if the file is small or does not
+   * exist.
+   */
+  private MappedByteBuffer mapped;
+
   private boolean modified;
 
   private boolean isClosed = false;
@@ -31,79 +62,174 @@ class IncrementalFileOutputStream extends OutputStream {
       throw new IllegalArgumentException("output file not specified");
     }
 
-    File parent = file.getParentFile();
+    modified = !file.exists();
 
-    if (!parent.isDirectory() && !parent.mkdirs()) {
-      throw new IOException("Could not create directory " + parent);
-    }
+    channel = open(file);
+    buffer = new byte[BUF_SIZE];
+    readBuffer = ByteBuffer.allocate(BUF_SIZE);
 
-    modified = !file.exists();
+    if (MAP_ENABLED && !modified) {
+      long size = channel.size();
+      if (size >= MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+    }
+  }
 
-    if (file.exists() && !file.canWrite()) {
+  /**
+   * Opens the file assuming its parent directory exists and the file is writable, which is the
+   * case for all but the first write of an output. Missing directories and read-only files are
+   * only dealt with when the optimistic open fails.
+   */
+  private static FileChannel open(File file) throws IOException {
+    try {
+      return doOpen(file);
+    } catch (NoSuchFileException e) {
+      File parent = file.getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create directory " + parent);
+      }
+    } catch (AccessDeniedException e) {
+      if (!file.exists() || file.canWrite()) {
+        throw e;
+      }
       file.setWritable(true);
     }
+    return doOpen(file);
+  }
 
-    raf = new RandomAccessFile(file, "rw");
-    buffer = new byte[BUF_SIZE];
+  private static FileChannel doOpen(File file) throws IOException {
+    return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
   }
 
   @Override
   public void close() throws IOException {
     if (!isClosed) {
-      long pos = raf.getFilePointer();
-      if (pos < raf.length()) {
-        modified = true;
-        raf.setLength(pos);
-      }
-      raf.close();
       isClosed = true;
+      try {
+        flushBuffer();
+        long pos = channel.position();
+        if (pos < channel.size()) {
+          modified = true;
+          channel.truncate(pos);
+        }
+      } finally {
+        mapped = null;
+        channel.close();
+      }
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count == buffer.length) {
+      flushBuffer();
     }
+    buffer[count++] = (byte) b;
   }
 
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
-    if (modified) {
-      raf.write(b, off, len);
-    } else {
-      for (int n = len; n > 0;) {
-        int read = raf.read(buffer, 0, Math.min(buffer.length, n));
-        if (read < 0 || !arrayEquals(b, off + len - n, buffer, 0, read)) {
-          modified = true;
-          if (read > 0) {
-            raf.seek(raf.getFilePointer() - read);
-          }
-          raf.write(b, off + len - n, n);
-          break;
-        } else {
-          n -= read;
-        }
+    if (len >= buffer.length) {
+      flushBuffer();
+      compareAndWrite(b, off, len);
+      return;
+    }
+    if (len > buffer.length - count) {
+      flushBuffer();
+    }
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      compareAndWrite(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private void compareAndWrite(byte[] b, int off, int len) throws IOException {
+    int n = 0;
+    if (!modified && mapped != null) {
+      n = compareMapped(b, off, len);
+    }
+    while (!modified && n < len) {
+      final long position = channel.position();
+      final int expected = Math.min(readBuffer.capacity(), len - n);
+      final int read = readFully(expected);
+      final int mismatch = mismatch(b, off + n, readBuffer.array(), 0, read);
+      if (mismatch >= 0 || read < expected) {
+        // rewrite starting from the first different byte
+        final int same = mismatch >= 0 ? mismatch : read;
+        modified = true;
+        n += same;
+        channel.position(position + same);
+      } else {
+        n += read;
       }
     }
+    if (n < len) {
+      writeFully(ByteBuffer.wrap(b, off + n, len - n));
+    }
+  }
+
+  private int compareMapped(byte[] b, int off, int len) throws IOException {
+    final long position = channel.position();
+    final int available = (int) Math.max(0L, mapped.limit() - position);
+    final int expected = Math.min(len, available);
+    final int mismatch = mismatch(ByteBuffer.wrap(b), off, mapped, (int) position, expected);
+    final int same = mismatch >= 0 ? mismatch : expected;
+    if (same < len) {
+      // rewrite starting from the first different byte
+      modified = true;
+    }
+    channel.position(position + same);
+    return same;
   }
 
-  private boolean arrayEquals(byte[] a1, int off1, byte[] a2, int off2, int len) {
-    for (int i = 0; i < len; i++) {
-      if (a1[off1 + i] != a2[off2 + i]) {
-        return false;
+  private int readFully(int len) throws IOException {
+    readBuffer.clear().limit(len);
+    while (readBuffer.hasRemaining()) {
+      if (channel.read(readBuffer) < 0) {
+        break;
       }
     }
-    return true;
+    return readBuffer.position();
   }
 
-  @Override
-  public void write(int b) throws IOException {
-    if (modified) {
-      raf.write(b);
-    } else {
-      int i = raf.read();
-      if (i < 0 || i != (b & 0xFF)) {
-        modified = true;
-        if (i >= 0) {
-          raf.seek(raf.getFilePointer() - 1);
-        }
-        raf.write(b);
+  private void writeFully(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src);
+    }
+  }
+
+  /**
+   * Returns index of the first different byte or {@code -1} if the two array ranges are equal.
+   * Compares 8 bytes at a time while possible.
+   */
+  static int mismatch(byte[] a, int aOff, byte[] b, int bOff, int len) {
+    return mismatch(ByteBuffer.wrap(a), aOff, ByteBuffer.wrap(b), bOff, len);
+  }
+
+  /**
+   * Same as {@link #mismatch(byte[], int, byte[], int, int)}, but compares buffer contents at the
+   * specified absolute indexes, regardless of the buffer positions and limits.
+   */
+  static int mismatch(ByteBuffer a, int aOff, ByteBuffer b, int bOff, int len) {
+    int i = 0;
+    for (; i <= len - 8; i += 8) {
+      if (a.getLong(aOff + i) != b.getLong(bOff + i)) {
+        break;
+      }
+    }
+    for (; i < len; i++) {
+      if (a.get(aOff + i) != b.get(bOff + i)) {
+        return i;
       }
     }
+    return -1;
   }
 
 }
@@ -0,0 +1,482 @@
+package io.takari.incrementalbuild.spi;
+
+import io.takari.incrementalbuild.workspace.Workspace;
+import io.takari.incrementalbuild.workspace.Workspace.FileVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Finds, selects and processes inputs under a directory in stages connected by bounded queues
+ * <ol>
+ * <li>walk, walks the directory using the workspace,</li>
+ * <li>match, filters walked files, see {@link #matches(File)},</li>
+ * <li>status, registers matching files and selects files that need processing, see
+ * {@link #select(File, long, long, Workspace.ResourceStatus)},</li>
+ * <li>process, processes selected items, see {@link #process(Object)}.</li>
+ * </ol>
+ * Walk, match and status stages run on pooled threads, process stage runs on the calling thread
+ * and optionally additional threads. This way disk bound stages overlap with processing, which is
+ * usually CPU bound. With a single process thread, selected items are processed in the order they
+ * were walked. With multiple process threads, selected items waiting for processing are processed
+ * largest file first.
+ * <p>
+ * Stages hand items over through blocking queues and signal their completion with an end marker.
+ * A stage that fails or sees another stage fail clears its input queue, which wakes up the
+ * previous stage, and passes the end marker to the next stage.
+ * <p>
+ * Each stage records number of items it handled and the time it was busy, i.e. not waiting for
+ * other stages. Instances are meant to be run once.
+ */
+abstract class InputPipeline<T> {
+
+  static final int QUEUE_CAPACITY = 1024;
+
+  private static ExecutorService executor;
+
+  /**
+   * Returns the pool stage threads are taken from. Stages wait for each other, so unlike the
+   * {@link Parallel} pool, this pool is not bounded, idle threads are discarded after a while.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "incrementalbuild-pipeline-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Throughput metrics of a pipeline stage.
+   */
+  static class Stage {
+    final String name;
+
+    private final AtomicLong items = new AtomicLong();
+
+    private final AtomicLong waitingNanos = new AtomicLong();
+
+    private final AtomicLong elapsedNanos = new AtomicLong();
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    public long getItems() {
+      return items.get();
+    }
+
+    /**
+     * Returns the time this stage was busy, summed over all threads of the stage.
+     */
+    public long getBusyMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos.get() - waitingNanos.get());
+    }
+
+    @Override
+    public String toString() {
+      long busy = getBusyMillis();
+      long throughput = getItems() * 1000 / Math.max(1, busy);
+      return name + " " + getItems() + " items in " + busy + " ms (" + throughput + " items/s)";
+    }
+  }
+
+  private static class WalkedFile {
+    final File file;
+
+    final long lastModified;
+
+    final long length;
+
+    final Workspace.ResourceStatus status;
+
+    WalkedFile(File file, long lastModified, long length, Workspace.ResourceStatus status) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.status = status;
+    }
+  }
+
+  private static final WalkedFile END = new WalkedFile(null, 0L, 0L, null);
+
+  private static class Selected<T> implements Comparable<Selected<T>> {
+    final T item;
+
+    final long length;
+
+    final long sequence;
+
+    Selected(T item, long length, long sequence) {
+      this.item = item;
+      this.length = length;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Selected<T> other) {
+      // largest first, otherwise in order of selection
+      int result = Long.compare(other.length, length);
+      return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  /**
+   * Thrown by stages when the pipeline is aborted because another stage failed.
+   */
+  private static class AbortedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private final Stage walkStage = new Stage("walk");
+
+  private final Stage matchStage = new Stage("match");
+
+  private final Stage statusStage = new Stage("status");
+
+  private final Stage processStage = new Stage("process");
+
+  private final BlockingQueue<WalkedFile> walked = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  private final BlockingQueue<WalkedFile> matched = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  /**
+   * Selected items, in order of selection if {@link #ordered}, otherwise largest first. The end
+   * marker sorts after all selected items.
+   */
+  private BlockingQueue<Selected<T>> selected;
+
+  private final Selected<T> endOfSelection = new Selected<T>(null, -1L, Long.MAX_VALUE);
+
+  /**
+   * Bounds the number of waiting items if selected items are processed largest first.
+   */
+  private final Semaphore selectedPermits = new Semaphore(QUEUE_CAPACITY);
+
+  private volatile boolean selectionDone;
+
+  /**
+   * If {@code true}, selected items are processed by a single thread in order of selection.
+   */
+  private boolean ordered;
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  /**
+   * Returns {@code true} if the file is an input handled by this pipeline. Called by the match
+   * stage thread.
+   */
+  protected abstract boolean matches(File file);
+
+  /**
+   * Registers the input and returns the item to process or {@code null} if the input does not need
+   * processing. Called by the status stage thread.
+   */
+  protected abstract T select(File file, long lastModified, long length,
+      Workspace.ResourceStatus status) throws IOException;
+
+  /**
+   * Processes selected item. Called concurrently by all process stage threads.
+   */
+  protected abstract void process(T item) throws IOException;
+
+  /**
+   * Runs the pipeline and waits for all stages to complete. If any stage fails, the pipeline is
+   * aborted and the first failure is rethrown.
+   *
+   * @param threads is the number of process stage threads, including the calling thread
+   */
+  public void run(final Workspace workspace, final File basedir, int threads) throws IOException {
+    ordered = threads == 1;
+    selected = ordered
+        ? new ArrayBlockingQueue<Selected<T>>(QUEUE_CAPACITY)
+        : new PriorityBlockingQueue<Selected<T>>();
+    List<Future<Void>> futures = new ArrayList<>();
+    futures.add(getExecutor().submit(new StageRunner(walkStage) {
+      @Override
+      protected void run() throws IOException {
+        walk(workspace, basedir);
+      }
+
+      @Override
+      protected void done(boolean aborted) {
+        end(walked, END, aborted);
+      }
+    }));
+    futures.add(getExecutor().submit(new StageRunner(matchStage) {
+      @Override
+      protected void run() {
+        match();
+      }
+
+      @Override
+      protected void done(boolean aborted) {
+        if (aborted) {
+          walked.clear();
+        }
+        end(matched, END, aborted);
+      }
+    }));
+    futures.add(getExecutor().submit(new StageRunner(statusStage) {
+      @Override
+      protected void run() throws IOException {
+        select();
+      }
+
+      @Override
+      protected void done(boolean aborted) {
+        selectionDone = true;
+        if (aborted) {
+          matched.clear();
+        }
+        end(selected, endOfSelection, aborted);
+      }
+    }));
+    StageRunner processor = new StageRunner(processStage) {
+      @Override
+      protected void run() throws IOException {
+        process();
+      }
+
+      @Override
+      protected void done(boolean aborted) {
+        if (aborted) {
+          selected.clear();
+          selectedPermits.release(QUEUE_CAPACITY);
+        }
+        // wakes up other process threads
+        end(selected, endOfSelection, aborted);
+      }
+    };
+    for (int i = 1; i < threads; i++) {
+      futures.add(getExecutor().submit(processor));
+    }
+    processor.call();
+
+    // stages complete shortly after processing ends, i.e. after the status stage completed or the
+    // pipeline was aborted
+    boolean interrupted = false;
+    for (Future<Void> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (ExecutionException e) {
+          fail(e.getCause());
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    Throwable failure = this.failure.get();
+    if (failure instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } else if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IOException(failure);
+    }
+  }
+
+  /**
+   * Returns throughput metrics of walk, match, status and process stages.
+   */
+  public List<Stage> getStages() {
+    return Arrays.asList(walkStage, matchStage, statusStage, processStage);
+  }
+
+  boolean isSelectionDone() {
+    return selectionDone;
+  }
+
+  private abstract class StageRunner implements Callable<Void> {
+    final Stage stage;
+
+    StageRunner(Stage stage) {
+      this.stage = stage;
+    }
+
+    @Override
+    public Void call() {
+      long start = System.nanoTime();
+      try {
+        run();
+      } catch (AbortedException e) {
+        // another stage failed
+      } catch (Throwable e) {
+        fail(e);
+      } finally {
+        try {
+          done(isAborted());
+        } finally {
+          stage.elapsedNanos.addAndGet(System.nanoTime() - start);
+        }
+      }
+      return null;
+    }
+
+    protected abstract void run() throws IOException;
+
+    /**
+     * Wakes up the previous stage if the pipeline was aborted and signals end of input to the next
+     * stage.
+     */
+    protected abstract void done(boolean aborted);
+  }
+
+  private void fail(Throwable e) {
+    if (!failure.compareAndSet(null, e) && failure.get() != e) {
+      failure.get().addSuppressed(e);
+    }
+  }
+
+  private boolean isAborted() {
+    return failure.get() != null;
+  }
+
+  private void walk(Workspace workspace, File basedir) throws IOException {
+    workspace.walk(basedir, new FileVisitor() {
+      @Override
+      public void visit(File file, long lastModified, long length,
+          Workspace.ResourceStatus status) {
+        walkStage.items.incrementAndGet();
+        put(walked, new WalkedFile(file, lastModified, length, status), walkStage);
+      }
+    });
+  }
+
+  private void match() {
+    WalkedFile file;
+    while ((file = take(walked, matchStage)) != END) {
+      matchStage.items.incrementAndGet();
+      if (matches(file.file)) {
+        put(matched, file, matchStage);
+      }
+    }
+  }
+
+  private void select() throws IOException {
+    WalkedFile file;
+    long sequence = 0;
+    while ((file = take(matched, statusStage)) != END) {
+      statusStage.items.incrementAndGet();
+      T item = select(file.file, file.lastModified, file.length, file.status);
+      if (item != null) {
+        Selected<T> element = new Selected<T>(item, file.length, sequence++);
+        if (ordered) {
+          put(selected, element, statusStage);
+        } else {
+          acquire(selectedPermits, statusStage);
+          selected.add(element);
+        }
+      }
+    }
+  }
+
+  private void process() throws IOException {
+    Selected<T> item;
+    while ((item = take(selected, processStage)) != endOfSelection) {
+      if (!ordered) {
+        selectedPermits.release();
+      }
+      processStage.items.incrementAndGet();
+      process(item.item);
+    }
+  }
+
+  /**
+   * Passes the end marker to the next stage. If the pipeline was aborted, the marker is dropped if
+   * the queue is full, in which case the next stage sees the pipeline was aborted once it takes the
+   * next element.
+   */
+  private <E> void end(BlockingQueue<E> queue, E marker, boolean aborted) {
+    if (!aborted) {
+      try {
+        queue.put(marker);
+        return;
+      } catch (InterruptedException e) {
+        fail(e);
+      }
+    }
+    queue.offer(marker);
+  }
+
+  private <E> void put(BlockingQueue<E> queue, E element, Stage stage) {
+    long start = System.nanoTime();
+    try {
+      queue.put(element);
+    } catch (InterruptedException e) {
+      fail(e);
+    } finally {
+      stage.waitingNanos.addAndGet(System.nanoTime() - start);
+    }
+    if (isAborted()) {
+      throw new AbortedException();
+    }
+  }
+
+  private <E> E take(BlockingQueue<E> queue, Stage stage) {
+    long start = System.nanoTime();
+    E element = null;
+    try {
+      element = queue.take();
+    } catch (InterruptedException e) {
+      fail(e);
+    } finally {
+      stage.waitingNanos.addAndGet(System.nanoTime() - start);
+    }
+    if (isAborted()) {
+      throw new AbortedException();
+    }
+    return element;
+  }
+
+  private void acquire(Semaphore semaphore, Stage stage) {
+    long start = System.nanoTime();
+    try {
+      semaphore.acquire();
+    } catch (InterruptedException e) {
+      fail(e);
+    } finally {
+      stage.waitingNanos.addAndGet(System.nanoTime() - start);
+    }
+    if (isAborted()) {
+      throw new AbortedException();
+    }
+  }
+}
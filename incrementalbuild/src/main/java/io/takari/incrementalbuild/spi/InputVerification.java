@@ -0,0 +1,49 @@
+package io.takari.incrementalbuild.spi;
+
+import java.util.Locale;
+
+/**
+ * Controls which inputs are checked for changes during the build by
+ * {@link AbstractBuildContext#commit(MessageSinkAdaptor)}.
+ */
+enum InputVerification {
+
+  /**
+   * All inputs are checked. This is the default.
+   */
+  FULL,
+
+  /**
+   * Only inputs processed during this build are checked.
+   */
+  PROCESSED,
+
+  /**
+   * Inputs processed during this build and a random sample of other inputs are checked.
+   */
+  SAMPLED,
+
+  /**
+   * Inputs are not checked. Appropriate when sources cannot change during the build, for example
+   * on CI servers.
+   */
+  OFF;
+
+  /**
+   * System property used to select verification policy, one of {@code full}, {@code processed},
+   * {@code sampled} or {@code off}.
+   */
+  static final String PROPERTY = "incrementalbuild.verifyInputs";
+
+  static InputVerification fromSystemProperties() {
+    String value = System.getProperty(PROPERTY);
+    if (value == null || value.isEmpty()) {
+      return FULL;
+    }
+    try {
+      return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unsupported " + PROPERTY + " value " + value);
+    }
+  }
+}
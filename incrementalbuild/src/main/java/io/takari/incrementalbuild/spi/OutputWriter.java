@@ -0,0 +1,221 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Writer that encodes characters in {@link #BUF_SIZE} chunks and passes the encoded bytes to the
+ * underlying output stream in a single write per chunk.
+ * <p>
+ * Unlike {@link java.io.OutputStreamWriter}, encoders and buffers are taken from a small shared
+ * pool and returned to it when the writer is closed. ASCII characters are copied without going
+ * through the encoder when the charset is known to encode them as single identical bytes.
+ * <p>
+ * The underlying stream is closed only after all characters were encoded and written. If that
+ * fails, the stream is left open so partial contents are not published as the output.
+ */
+class OutputWriter extends Writer {
+
+  static final int BUF_SIZE = 8 * 1024;
+
+  static final int POOL_SIZE = 8;
+
+  private static class Encoding {
+    final Charset charset;
+
+    final CharsetEncoder encoder;
+
+    final boolean asciiCompatible;
+
+    final char[] chars;
+
+    final CharBuffer charBuffer;
+
+    final byte[] bytes;
+
+    final ByteBuffer byteBuffer;
+
+    Encoding(Charset charset) {
+      this.charset = charset;
+      this.encoder = charset.newEncoder() //
+          .onMalformedInput(CodingErrorAction.REPLACE) //
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      this.asciiCompatible = StandardCharsets.UTF_8.equals(charset)
+          || StandardCharsets.US_ASCII.equals(charset)
+          || StandardCharsets.ISO_8859_1.equals(charset);
+      this.chars = new char[BUF_SIZE];
+      this.charBuffer = CharBuffer.wrap(chars);
+      // large enough to encode all chars in one go
+      this.bytes = new byte[(int) Math.ceil(BUF_SIZE * (double) encoder.maxBytesPerChar())];
+      this.byteBuffer = ByteBuffer.wrap(bytes);
+    }
+  }
+
+  /**
+   * Encodings not currently used by any writer, most recently used first. Writers take encodings out
+   * of the pool and return them when closed, so writers open at the same time do not share them.
+   * Unlike thread locals, pooled encodings do not outlive this class on long-lived threads.
+   */
+  private static final Deque<Encoding> POOL = new ArrayDeque<>(POOL_SIZE); // guarded by itself
+
+  private static Encoding takeEncoding(Charset charset) {
+    synchronized (POOL) {
+      Iterator<Encoding> iterator = POOL.iterator();
+      while (iterator.hasNext()) {
+        Encoding encoding = iterator.next();
+        if (encoding.charset.equals(charset)) {
+          iterator.remove();
+          return encoding;
+        }
+      }
+    }
+    return new Encoding(charset);
+  }
+
+  private static void releaseEncoding(Encoding encoding) {
+    encoding.encoder.reset();
+    synchronized (POOL) {
+      if (POOL.size() == POOL_SIZE) {
+        POOL.removeLast();
+      }
+      POOL.addFirst(encoding);
+    }
+  }
+
+  static int getPoolSize() {
+    synchronized (POOL) {
+      return POOL.size();
+    }
+  }
+
+  private final OutputStream out;
+
+  private Encoding encoding;
+
+  private final char[] chars;
+
+  private int count;
+
+  public OutputWriter(OutputStream out, Charset charset) {
+    if (out == null || charset == null) {
+      throw new IllegalArgumentException();
+    }
+    Encoding encoding = takeEncoding(charset);
+    this.out = out;
+    this.encoding = encoding;
+    this.chars = encoding.chars;
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    ensureOpen();
+    if (count == chars.length) {
+      encode(false);
+    }
+    chars[count++] = (char) c;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      if (count == chars.length) {
+        encode(false);
+      }
+      int n = Math.min(len, chars.length - count);
+      System.arraycopy(cbuf, off, chars, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      if (count == chars.length) {
+        encode(false);
+      }
+      int n = Math.min(len, chars.length - count);
+      str.getChars(off, off + n, chars, count);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  private void encode(boolean endOfInput) throws IOException {
+    final byte[] bytes = encoding.bytes;
+    int i = 0;
+    if (encoding.asciiCompatible) {
+      for (; i < count; i++) {
+        char c = chars[i];
+        if (c >= 0x80) {
+          break;
+        }
+        bytes[i] = (byte) c;
+      }
+    }
+    int n = i;
+    if (i < count || endOfInput) {
+      CharBuffer charBuffer = encoding.charBuffer;
+      ByteBuffer byteBuffer = encoding.byteBuffer;
+      charBuffer.limit(count).position(i);
+      byteBuffer.clear().position(n);
+      CoderResult result = encoding.encoder.encode(charBuffer, byteBuffer, endOfInput);
+      if (endOfInput && result.isUnderflow()) {
+        result = encoding.encoder.flush(byteBuffer);
+      }
+      if (!result.isUnderflow()) {
+        // the byte buffer is large enough for all chars and errors are replaced
+        throw new IllegalStateException(result.toString());
+      }
+      i = charBuffer.position();
+      n = byteBuffer.position();
+    }
+    out.write(bytes, 0, n);
+    // chars the encoder needs more input for, i.e. high surrogate at the end of the buffer
+    count -= i;
+    System.arraycopy(chars, i, chars, 0, count);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    encode(false);
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (encoding == null) {
+      return;
+    }
+    try {
+      encode(true);
+    } finally {
+      Encoding encoding = this.encoding;
+      this.encoding = null;
+      releaseEncoding(encoding);
+    }
+    out.close();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (encoding == null) {
+      throw new IOException("Writer closed");
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent, mostly I/O bound, operations over large collections on a shared pool of daemon
+ * threads. Small collections are processed on the calling thread.
+ */
+class Parallel {
+
+  public static interface Function<I, O> {
+    public O apply(I input) throws IOException;
+  }
+
+  /**
+   * Minimal number of elements processed by a single thread. Below this, scheduling overhead
+   * outweighs any gains from parallel execution.
+   */
+  static final int MIN_CHUNK_SIZE = 64;
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "incrementalbuild-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Applies the function to all inputs and returns results in the order of the inputs. If the
+   * function fails for any input, the first failure is rethrown after all inputs were processed.
+   */
+  public static <I, O> List<O> map(final List<I> inputs, final Function<I, O> function)
+      throws IOException {
+    final int size = inputs.size();
+    final int chunks = Math.min(THREADS, (size + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+    if (chunks <= 1) {
+      List<O> result = new ArrayList<>(size);
+      for (I input : inputs) {
+        result.add(function.apply(input));
+      }
+      return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    final O[] result = (O[]) new Object[size];
+    List<Future<?>> futures = new ArrayList<>(chunks);
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      final int from = (int) ((long) size * chunk / chunks);
+      final int to = (int) ((long) size * (chunk + 1) / chunks);
+      futures.add(getExecutor().submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int i = from; i < to; i++) {
+            result[i] = function.apply(inputs.get(i));
+          }
+          return null;
+        }
+      }));
+    }
+    Throwable failure = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IOException(failure);
+    }
+    return Arrays.asList(result);
+  }
+}
@@ -0,0 +1,214 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads build state files on a shared pool of background threads, so state loading can overlap
+ * with other work done before a build context is created, like digesting build configuration.
+ * Prefetched state is handed over by {@link DefaultBuildContextState#loadFrom(File)}, which falls
+ * back to loading the state file directly if the file changed since it was prefetched or if it was
+ * prefetched using different context class loader.
+ * <p>
+ * At most one prefetched state is retained per state file, until it is handed over or until the
+ * owner the state was prefetched for, usually the project being built, is no longer referenced.
+ * This bounds retention of states that are never taken, for example states of executions that do
+ * not run in this build, and of the class loaders of their classes by the life of the build
+ * session. The class loader used to resolve state classes is not referenced by the prefetcher
+ * itself.
+ *
+ * @noreference this is public for use by build context environments only
+ */
+public class StatePrefetcher {
+
+  private static final int THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  // guarded by StatePrefetcher.class monitor, which is never held while waiting for a state
+  private static final Map<Object, Map<File, Prefetched>> prefetched = new WeakHashMap<>();
+
+  private static ExecutorService executor;
+
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "incrementalbuild-state-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  private static class Prefetched {
+    final Reference<ClassLoader> classLoader;
+
+    final long lastModified;
+
+    final long length;
+
+    final Future<DefaultBuildContextState> state;
+
+    Prefetched(ClassLoader classLoader, long lastModified, long length,
+        Future<DefaultBuildContextState> state) {
+      this.classLoader = new WeakReference<>(classLoader);
+      this.lastModified = lastModified;
+      this.length = length;
+      this.state = state;
+    }
+
+    void cancel() {
+      if (state != null) {
+        state.cancel(false);
+      }
+    }
+  }
+
+  private StatePrefetcher() {}
+
+  /**
+   * Starts loading state from the state file in background, using the calling thread context class
+   * loader to resolve state classes. Does nothing if the state file is already being prefetched.
+   *
+   * @param owner bounds retention of the prefetched state, the state is discarded if it is not
+   *        taken before the owner is garbage collected
+   */
+  public static void prefetch(Object owner, final File stateFile) {
+    final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    Prefetched current = get(owner, stateFile);
+    if (current != null && current.classLoader.get() == classLoader
+        && isCurrent(current, stateFile)) {
+      return;
+    }
+    // attributes are captured before the state is read, changes made while reading invalidate it
+    long lastModified = stateFile.lastModified();
+    long length = stateFile.length();
+    Future<DefaultBuildContextState> state;
+    if (lastModified == 0L) {
+      state = null; // the state file does not exist
+    } else {
+      state = getExecutor().submit(new Callable<DefaultBuildContextState>() {
+        @Override
+        public DefaultBuildContextState call() {
+          return DefaultBuildContextState.loadFrom(stateFile, classLoader);
+        }
+      });
+    }
+    Prefetched previous = put(owner, stateFile, new Prefetched(classLoader, lastModified, length,
+        state));
+    if (previous != null) {
+      previous.cancel();
+    }
+  }
+
+  private static synchronized Prefetched get(Object owner, File stateFile) {
+    Map<File, Prefetched> states = prefetched.get(owner);
+    return states != null ? states.get(stateFile) : null;
+  }
+
+  private static synchronized Prefetched put(Object owner, File stateFile, Prefetched state) {
+    // a state file is prefetched for one owner at a time
+    Prefetched previous = remove(stateFile);
+    Map<File, Prefetched> states = prefetched.get(owner);
+    if (states == null) {
+      states = new HashMap<>();
+      prefetched.put(owner, states);
+    }
+    states.put(stateFile, state);
+    return previous;
+  }
+
+  private static synchronized Prefetched remove(File stateFile) {
+    Prefetched removed = null;
+    Iterator<Map<File, Prefetched>> iterator = prefetched.values().iterator();
+    while (iterator.hasNext()) {
+      Map<File, Prefetched> states = iterator.next();
+      Prefetched state = states.remove(stateFile);
+      if (state != null) {
+        removed = state;
+      }
+      if (states.isEmpty()) {
+        iterator.remove();
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Starts loading state files in the directory whose names start with the prefix in background.
+   * Only state files that will be loaded with the calling thread context class loader should be
+   * prefetched, states prefetched with a different class loader are discarded when taken.
+   *
+   * @see #prefetch(Object, File)
+   */
+  public static void prefetchAll(Object owner, File stateDirectory, String prefix) {
+    File[] files = stateDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(prefix) && file.isFile()) {
+          prefetch(owner, file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns prefetched state of the state file, waiting for the state to be loaded if necessary,
+   * or {@code null} if the state file was not prefetched or the prefetched state is not usable.
+   */
+  static DefaultBuildContextState take(File stateFile, ClassLoader classLoader) {
+    Prefetched prefetched = remove(stateFile);
+    if (prefetched == null) {
+      return null;
+    }
+    if (prefetched.classLoader.get() != classLoader || !isCurrent(prefetched, stateFile)) {
+      prefetched.cancel();
+      return null;
+    }
+    if (prefetched.state == null) {
+      return DefaultBuildContextState.emptyState();
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return prefetched.state.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static boolean isCurrent(Prefetched prefetched, File stateFile) {
+    return prefetched.lastModified == stateFile.lastModified()
+        && prefetched.length == stateFile.length();
+  }
+}
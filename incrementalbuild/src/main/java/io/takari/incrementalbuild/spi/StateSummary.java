@@ -0,0 +1,121 @@
+package io.takari.incrementalbuild.spi;
+
+import io.takari.incrementalbuild.InputSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summary of incremental build state, stored at the beginning of the state file. Allows quick
+ * checks of the state file without reading the rest of it. The summary only refers to classes of
+ * this library and the JDK, so it can be read without resolving classes of build state values.
+ */
+class StateSummary implements Serializable {
+
+  private static final long serialVersionUID = 1;
+
+  final int resources;
+
+  final int outputs;
+
+  final int messages;
+
+  /**
+   * Number of error messages.
+   */
+  final int errors;
+
+  /**
+   * Digest of build configuration.
+   */
+  final byte[] configurationDigest;
+
+  /**
+   * Input specs walked by the build, with normalized basedirs, used to detect matching files added
+   * under the basedirs. {@code null} in summaries stored by older versions.
+   */
+  final List<InputSpec> inputSpecs;
+
+  /**
+   * Files of all resources, including outputs, with their timestamps and lengths at the index of
+   * the file. {@code null} if the state has resources other than files and in summaries stored by
+   * older versions.
+   */
+  final File[] files;
+
+  final long[] lastModified;
+
+  final long[] lengths;
+
+  StateSummary(int resources, int outputs, int messages, int errors, byte[] configurationDigest,
+      List<InputSpec> inputSpecs, List<FileState> files) {
+    this.resources = resources;
+    this.outputs = outputs;
+    this.messages = messages;
+    this.errors = errors;
+    this.configurationDigest = configurationDigest;
+    this.inputSpecs = inputSpecs;
+    if (files != null) {
+      this.files = new File[files.size()];
+      this.lastModified = new long[files.size()];
+      this.lengths = new long[files.size()];
+      for (int i = 0; i < files.size(); i++) {
+        FileState state = files.get(i);
+        this.files[i] = state.file;
+        this.lastModified[i] = state.lastModified;
+        this.lengths[i] = state.length;
+      }
+    } else {
+      this.files = null;
+      this.lastModified = null;
+      this.lengths = null;
+    }
+  }
+
+  /**
+   * Returns states of {@link #files}, or {@code null} if the summary does not record them.
+   */
+  List<FileState> getFileStates() {
+    if (files == null) {
+      return null;
+    }
+    List<FileState> result = new ArrayList<>(files.length);
+    for (int i = 0; i < files.length; i++) {
+      result.add(new FileState(files[i], lastModified[i], lengths[i]));
+    }
+    return result;
+  }
+
+  public static byte[] digestConfiguration(Map<String, Serializable> configuration)
+      throws IOException {
+    MessageDigest digester = FileState.newDigester();
+    OutputStream nul = new OutputStream() {
+      @Override
+      public void write(int b) {}
+
+      @Override
+      public void write(byte[] b, int off, int len) {}
+    };
+    try (ObjectOutputStream oos = new ObjectOutputStream(new DigestOutputStream(nul, digester))) {
+      for (Map.Entry<String, Serializable> entry : new TreeMap<>(configuration).entrySet()) {
+        oos.writeUTF(entry.getKey());
+        oos.writeObject(entry.getValue());
+      }
+    }
+    return digester.digest();
+  }
+
+  @Override
+  public String toString() {
+    return resources + " resources, " + outputs + " outputs, " + messages + " messages";
+  }
+}
@@ -0,0 +1,121 @@
+package io.takari.incrementalbuild.maven.internal;
+
+import io.takari.incrementalbuild.MessageSeverity;
+import io.takari.incrementalbuild.spi.BuildContextEnvironment;
+import io.takari.incrementalbuild.spi.BuildContextFinalizer;
+import io.takari.incrementalbuild.spi.DefaultBuildContext;
+import io.takari.incrementalbuild.spi.FilesystemWorkspace;
+import io.takari.incrementalbuild.workspace.Workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenBuildContextFinalizerTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private DefaultBuildContext newBuildContext(final MavenBuildContextFinalizer finalizer,
+      final File stateFile) {
+    return new DefaultBuildContext(newEnvironment(finalizer, stateFile));
+  }
+
+  private BuildContextEnvironment newEnvironment(final MavenBuildContextFinalizer finalizer,
+      final File stateFile) {
+    return new BuildContextEnvironment() {
+      @Override
+      public File getStateFile() {
+        return stateFile;
+      }
+
+      @Override
+      public Workspace getWorkspace() {
+        return new FilesystemWorkspace();
+      }
+
+      @Override
+      public Map<String, Serializable> getParameters() {
+        return Collections.emptyMap();
+      }
+
+      @Override
+      public BuildContextFinalizer getFinalizer() {
+        return finalizer;
+      }
+    };
+  }
+
+  @Test
+  public void testCommitMultipleContexts() throws Exception {
+    File stateA = new File(temp.getRoot(), "a.ctx");
+    File stateB = new File(temp.getRoot(), "b.ctx");
+    File inputA = temp.newFile("inputA");
+    File inputB = temp.newFile("inputB");
+
+    MavenBuildContextFinalizer finalizer = new MavenBuildContextFinalizer();
+    newBuildContext(finalizer, stateA).registerInput(inputA).process() //
+        .addMessage(1, 2, "errorA", MessageSeverity.ERROR, null);
+    newBuildContext(finalizer, stateB).registerInput(inputB).process() //
+        .addMessage(3, 4, "errorB", MessageSeverity.ERROR, null);
+
+    try {
+      finalizer.afterMojoExecutionSuccess(null);
+      Assert.fail();
+    } catch (MojoExecutionException e) {
+      // messages of all contexts are reported
+      Assert.assertTrue(e.getMessage().startsWith("2 error(s) encountered"));
+      Assert.assertTrue(e.getMessage().contains("errorA"));
+      Assert.assertTrue(e.getMessage().contains("errorB"));
+    }
+    Assert.assertTrue(stateA.isFile());
+    Assert.assertTrue(stateB.isFile());
+  }
+
+  @Test
+  public void testCommitMultipleContexts_failure() throws Exception {
+    final IOException failure = new IOException("a");
+
+    MavenBuildContextFinalizer finalizer = new MavenBuildContextFinalizer();
+    new DefaultBuildContext(newEnvironment(finalizer, new File(temp.getRoot(), "a.ctx"))) {
+      @Override
+      protected void finalizeContext() throws IOException {
+        throw failure;
+      }
+    };
+    // keep all other commit threads busy, so the next commit only starts after the failure
+    for (int i = 1; i < MavenBuildContextFinalizer.COMMIT_THREADS; i++) {
+      new DefaultBuildContext(newEnvironment(finalizer, new File(temp.getRoot(), i + ".ctx"))) {
+        @Override
+        protected void finalizeContext() throws IOException {
+          try {
+            Thread.sleep(500);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          super.finalizeContext();
+        }
+      };
+    }
+    File stateB = new File(temp.getRoot(), "b.ctx");
+    newBuildContext(finalizer, stateB).registerInput(temp.newFile("inputB")).process();
+    newBuildContext(finalizer, new File(temp.getRoot(), "c.ctx"));
+
+    try {
+      finalizer.afterMojoExecutionSuccess(null);
+      Assert.fail();
+    } catch (MojoExecutionException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+    // contexts registered after the failed context are not committed, same as sequential commit
+    Assert.assertFalse(stateB.exists());
+  }
+}
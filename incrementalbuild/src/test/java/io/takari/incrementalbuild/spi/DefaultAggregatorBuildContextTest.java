@@ -147,4 +147,31 @@ public class DefaultAggregatorBuildContextTest extends AbstractBuildContextTest
     Assert.assertFalse(outputFile.exists());
     Assert.assertEquals(0, indexer.outputs.size());
   }
+
+  @Test
+  public void testObsoleteOutputsDeleted() throws Exception {
+    File basedir = temp.newFolder();
+    new File(basedir, "a").createNewFile();
+    File outputFile1 = new File(temp.getRoot(), "output1");
+    File outputFile2 = new File(temp.getRoot(), "output2");
+    File outputFile3 = new File(temp.getRoot(), "output3");
+
+    DefaultAggregatorBuildContext actx = newContext();
+    for (File outputFile : new File[] {outputFile1, outputFile2, outputFile3}) {
+      DefaultInputSet output = actx.newInputSet();
+      output.addInputs(basedir, null, null);
+      output.aggregateIfNecessary(outputFile, new FileIndexer());
+    }
+    actx.commit(null);
+
+    // outputs not aggregated by this build are deleted together
+    actx = newContext();
+    DefaultInputSet output = actx.newInputSet();
+    output.addInputs(basedir, null, null);
+    output.aggregateIfNecessary(outputFile1, new FileIndexer());
+    actx.commit(null);
+    Assert.assertTrue(outputFile1.canRead());
+    Assert.assertFalse(outputFile2.exists());
+    Assert.assertFalse(outputFile3.exists());
+  }
 }
@@ -5,7 +5,11 @@ import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -15,6 +19,8 @@ import org.junit.rules.TemporaryFolder;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
+import io.takari.incrementalbuild.MessageSeverity;
+
 public class DefaultBuildContextStateTest {
   @Rule
   public final TemporaryFolder temp = new TemporaryFolder();
@@ -36,6 +42,129 @@ public class DefaultBuildContextStateTest {
     Assert.assertNotNull(state.getResource(file));
   }
 
+  @Test
+  public void testPrefetch() throws Exception {
+    File file = temp.newFile();
+    DefaultBuildContextState state =
+        DefaultBuildContextState.withConfiguration(new HashMap<String, Serializable>());
+    state.putResource(file, new FileState(file, file.lastModified(), file.length()));
+
+    File stateFile = temp.newFile("plugin_goal_execution");
+    File otherStateFile = temp.newFile("other_goal_execution");
+    for (File f : new File[] {stateFile, otherStateFile}) {
+      try (OutputStream os = new FileOutputStream(f)) {
+        state.storeTo(os);
+      }
+    }
+
+    StatePrefetcher.prefetchAll(this, temp.getRoot(), "plugin_");
+    Assert.assertNotNull(DefaultBuildContextState.loadFrom(stateFile).getResource(file));
+
+    // only state files with the prefix are prefetched
+    Assert.assertNull(StatePrefetcher.take(otherStateFile, getClass().getClassLoader()));
+
+    // prefetched state is handed over once
+    Assert.assertNull(StatePrefetcher.take(stateFile, getClass().getClassLoader()));
+
+    // state file changed after it was prefetched
+    StatePrefetcher.prefetch(this, stateFile);
+    try (OutputStream os = new FileOutputStream(stateFile)) {
+      DefaultBuildContextState.emptyState().storeTo(os);
+    }
+    stateFile.setLastModified(stateFile.lastModified() + 2000);
+    Assert.assertNull(DefaultBuildContextState.loadFrom(stateFile).getResource(file));
+
+    // missing state file
+    File missing = new File(temp.getRoot(), "missing");
+    StatePrefetcher.prefetch(this, missing);
+    Assert.assertTrue(DefaultBuildContextState.loadFrom(missing).getResources().isEmpty());
+  }
+
+  @Test
+  public void testGetFileStates() throws Exception {
+    File basedir = temp.newFolder("basedir");
+    File a = temp.newFile("basedir/a");
+    File b = new File(temp.newFolder("basedir", "sub"), "b");
+    File c = temp.newFile("basedir-c");
+    File d = temp.newFile("d");
+    DefaultBuildContextState state =
+        DefaultBuildContextState.withConfiguration(new HashMap<String, Serializable>());
+    for (File file : new File[] {a, b, c, d}) {
+      state.putResource(file, new FileState(file, file.lastModified(), file.length()));
+    }
+
+    Assert.assertEquals(2, state.getFileStates(basedir).size());
+    Assert.assertEquals(4, state.getFileStates(temp.getRoot()).size());
+
+    state.removeResource(a);
+    Assert.assertEquals(1, state.getFileStates(basedir).size());
+  }
+
+  @Test
+  public void testReadSummary() throws Exception {
+    File file = temp.newFile();
+    DefaultBuildContextState state =
+        DefaultBuildContextState.withConfiguration(new HashMap<String, Serializable>());
+    state.putResource(file, new FileState(file, file.lastModified(), file.length()));
+
+    File stateFile = temp.newFile();
+    try (OutputStream os = new FileOutputStream(stateFile)) {
+      state.storeTo(os);
+    }
+
+    StateSummary summary = DefaultBuildContextState.readSummary(stateFile);
+    Assert.assertEquals(1, summary.resources);
+    Assert.assertEquals(0, summary.outputs);
+    Assert.assertArrayEquals(StateSummary.digestConfiguration(state.configuration),
+        summary.configurationDigest);
+
+    Assert.assertNull(DefaultBuildContextState.readSummary(new File(temp.getRoot(), "missing")));
+  }
+
+  @Test
+  public void testCarryOver() throws Exception {
+    File input = temp.newFile("input");
+    File output = temp.newFile("output");
+    DefaultBuildContextState oldState =
+        DefaultBuildContextState.withConfiguration(new HashMap<String, Serializable>());
+    oldState.putResource(input, new FileState(input, input.lastModified(), input.length()));
+    oldState.putResource(output, new FileState(output, output.lastModified(), output.length()));
+    oldState.addOutput(output);
+    oldState.putResourceOutput(input, output);
+    oldState.putResourceAttribute(input, "key", "value");
+    oldState.addResourceMessage(input, new Message(1, 2, "message", MessageSeverity.WARNING, null));
+
+    DefaultBuildContextState state =
+        DefaultBuildContextState.withConfiguration(new HashMap<String, Serializable>());
+    state.carryOver(oldState, input);
+    state.carryOver(oldState, output);
+    Assert.assertTrue(state.isOutput(output));
+    Assert.assertEquals("value", state.getResourceAttribute(input, "key"));
+    Assert.assertEquals(1, state.getResourceMessages().size());
+    Assert.assertEquals(2, state.getFileStates(temp.getRoot()).size());
+
+    // modification does not leak into the previous state
+    state.putResourceAttribute(input, "key", "changed");
+    Assert.assertEquals("value", oldState.getResourceAttribute(input, "key"));
+    Assert.assertEquals(Collections.singletonList(input), toList(state.getOutputInputs(output)));
+
+    File stateFile = temp.newFile();
+    try (OutputStream os = new FileOutputStream(stateFile)) {
+      state.storeTo(os);
+    }
+    state = DefaultBuildContextState.loadFrom(stateFile);
+    Assert.assertNotNull(state.getResource(input));
+    Assert.assertTrue(state.isOutput(output));
+    Assert.assertEquals("changed", state.getResourceAttribute(input, "key"));
+    Assert.assertEquals(1, state.getResourceMessages(input).size());
+    Assert.assertEquals(Collections.singletonList(output),
+        toList(state.getResourceOutputs(input)));
+  }
+
+  private static <T> List<T> toList(Collection<T> collection) {
+    return collection != null ? new ArrayList<>(collection) : null;
+  }
+
   @Test
   public void testStateDoesNotExist() throws Exception {
     DefaultBuildContextState state =
@@ -6,26 +6,39 @@ import static io.takari.incrementalbuild.ResourceStatus.UNMODIFIED;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
+import io.takari.incrementalbuild.InputSpec;
+import io.takari.incrementalbuild.MessageSeverity;
+import io.takari.incrementalbuild.Resource;
 import io.takari.incrementalbuild.ResourceMetadata;
+import io.takari.incrementalbuild.ResourceProcessor;
 import io.takari.incrementalbuild.ResourceStatus;
+import io.takari.incrementalbuild.workspace.Workspace;
 
 public class DefaultBuildContextTest extends AbstractBuildContextTest {
 
@@ -48,6 +61,32 @@ public class DefaultBuildContextTest extends AbstractBuildContextTest {
     Assert.assertNotNull(context.registerInput(file));
   }
 
+  @Test
+  public void testRegisterInput_symlinks() throws Exception {
+    File dir = temp.newFolder("dir").getCanonicalFile();
+    File file = temp.newFile("dir/file").getCanonicalFile();
+    File linkdir = new File(temp.getRoot(), "linkdir");
+    File linkfile = new File(dir, "linkfile");
+    try {
+      java.nio.file.Files.createSymbolicLink(linkdir.toPath(), dir.toPath());
+      java.nio.file.Files.createSymbolicLink(linkfile.toPath(), file.toPath());
+    } catch (UnsupportedOperationException | IOException e) {
+      Assume.assumeNoException(e);
+    }
+
+    TestBuildContext context = newBuildContext();
+    Assert.assertEquals(file, context.registerInput(new File(linkdir, "file")).getResource());
+    Assert.assertEquals(file, context.registerInput(new File(linkdir, "linkfile")).getResource());
+    Assert.assertEquals(file, context.registerInput(linkfile).getResource());
+    context.commit();
+
+    // resource keys are shared with the previous build state
+    context = newBuildContext();
+    File resource = context.registerInput(new File(linkdir, "file")).getResource();
+    Assert.assertSame(((FileState) context.getOldState().getResource(file)).file, resource);
+    context.commit();
+  }
+
   @Test
   public void testOutputWithoutInputs() throws Exception {
     TestBuildContext context = newBuildContext();
@@ -117,6 +156,29 @@ public class DefaultBuildContextTest extends AbstractBuildContextTest {
     Assert.assertTrue(outputFile.canRead());
   }
 
+  @Test
+  public void testInputModifiedAfterRegistration_processedOnlyVerification() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputFile = temp.newFile("outputFile");
+
+    TestBuildContext context = newBuildContext();
+    DefaultResource<File> input = context.registerInput(inputFile).process();
+    input.associateOutput(outputFile);
+    context.commit();
+
+    System.setProperty(InputVerification.PROPERTY, "processed");
+    try {
+      context = newBuildContext();
+      context.registerInput(inputFile);
+      // not processed during this build, so not checked
+      Files.append("test", inputFile, Charsets.UTF_8);
+      context.commit();
+    } finally {
+      System.clearProperty(InputVerification.PROPERTY);
+    }
+    Assert.assertTrue(outputFile.canRead());
+  }
+
   @Test
   public void testCommit_orphanedOutputsCleanup() throws Exception {
     File inputFile = temp.newFile("inputFile");
@@ -159,6 +221,42 @@ public class DefaultBuildContextTest extends AbstractBuildContextTest {
     context.commit();
   }
 
+  @Test
+  public void testCommit_pruneEmptyDirectories() throws Exception {
+    File inputFile1 = temp.newFile("inputFile1");
+    File inputFile2 = temp.newFile("inputFile2");
+    File inputFile3 = temp.newFile("inputFile3");
+    File outputdir = temp.newFolder("outputs");
+    File outputFile1 = new File(outputdir, "a/outputFile1");
+    File outputFile2 = new File(outputdir, "a/b/outputFile2");
+    File outputFile3 = new File(outputdir, "c/outputFile3");
+
+    TestBuildContext context = newBuildContext();
+    write(context.registerInput(inputFile1).process().associateOutput(outputFile1), "1");
+    write(context.registerInput(inputFile2).process().associateOutput(outputFile2), "2");
+    write(context.registerInput(inputFile3).process().associateOutput(outputFile3), "3");
+    context.commit();
+
+    System.setProperty(AbstractBuildContext.PRUNE_EMPTY_DIRECTORIES, "true");
+    try {
+      // directories that contained deleted outputs are pruned
+      context = newBuildContext();
+      context.registerInput(inputFile3);
+      context.commit();
+      Assert.assertFalse(new File(outputdir, "a").exists());
+      Assert.assertTrue(outputFile3.canRead());
+
+      // directories at or above the common parent of all output directories are kept
+      context = newBuildContext();
+      context.commit();
+      Assert.assertFalse(outputFile3.exists());
+      Assert.assertTrue(outputFile3.getParentFile().isDirectory());
+      Assert.assertTrue(outputdir.isDirectory());
+    } finally {
+      System.clearProperty(AbstractBuildContext.PRUNE_EMPTY_DIRECTORIES);
+    }
+  }
+
   @Test
   public void testCreateStateParentDirectory() throws Exception {
     File stateFile = new File(temp.getRoot(), "sub/dir/buildstate.ctx");
@@ -194,6 +292,234 @@ public class DefaultBuildContextTest extends AbstractBuildContextTest {
     context.commit();
   }
 
+  @Test
+  public void testRegisterAndProcessInputs_processor() throws Exception {
+    temp.newFile("inputFile1");
+    temp.newFile("inputFile2");
+    final File outputFile = temp.newFile("outputFile");
+    final List<File> processed = new ArrayList<>();
+    ResourceProcessor processor = new ResourceProcessor() {
+      @Override
+      public void process(Resource<File> input) {
+        Assert.assertEquals(ResourceStatus.NEW, input.getStatus());
+        processed.add(input.getResource());
+        if (input.getResource().getName().equals("inputFile1")) {
+          input.associateOutput(outputFile);
+        }
+      }
+    };
+
+    TestBuildContext context = newBuildContext();
+    context.registerAndProcessInputs(temp.getRoot(), Arrays.asList("inputFile*"), null, processor);
+    Assert.assertEquals(2, processed.size());
+    context.commit();
+
+    // no change rebuild
+    processed.clear();
+    context = newBuildContext();
+    context.registerAndProcessInputs(temp.getRoot(), Arrays.asList("inputFile*"), null, processor);
+    Assert.assertEquals(0, processed.size());
+    context.commit();
+    Assert.assertTrue(outputFile.canRead());
+  }
+
+  @Test
+  public void testRegisterAndProcessInputs_walkOrder() throws Exception {
+    File basedir = temp.newFolder("inputs").getCanonicalFile();
+    for (int i = 0; i < 20; i++) {
+      Files.write(new byte[i % 7], new File(basedir, "inputFile" + i));
+    }
+    final List<File> walked = new ArrayList<>();
+    new FilesystemWorkspace().walk(basedir, new Workspace.FileVisitor() {
+      @Override
+      public void visit(File file, long lastModified, long length,
+          Workspace.ResourceStatus status) {
+        walked.add(file);
+      }
+    });
+
+    final Thread thread = Thread.currentThread();
+    final List<File> processed = new ArrayList<>();
+    TestBuildContext context = newBuildContext();
+    context.registerAndProcessInputs(basedir, null, null, new ResourceProcessor() {
+      @Override
+      public void process(Resource<File> input) {
+        Assert.assertSame(thread, Thread.currentThread());
+        processed.add(input.getResource());
+      }
+    });
+    Assert.assertEquals(walked, processed);
+  }
+
+  @Test(expected = IOException.class)
+  public void testRegisterAndProcessInputs_processorException() throws Exception {
+    temp.newFile("inputFile");
+    newBuildContext().registerAndProcessInputs(temp.getRoot(), null, null,
+        new ResourceProcessor() {
+          @Override
+          public void process(Resource<File> input) throws IOException {
+            throw new IOException();
+          }
+        });
+  }
+
+  @Test
+  public void testProcessInputsInParallel() throws Exception {
+    final File basedir = temp.newFolder("inputs").getCanonicalFile();
+    final File outputdir = new File(temp.getRoot(), "outputs");
+    for (int i = 0; i < 100; i++) {
+      Files.write(new byte[i], new File(basedir, "inputFile" + i));
+    }
+    final List<File> walked = new ArrayList<>();
+    new FilesystemWorkspace().walk(basedir, new Workspace.FileVisitor() {
+      @Override
+      public void visit(File file, long lastModified, long length,
+          Workspace.ResourceStatus status) {
+        walked.add(file);
+      }
+    });
+    final List<File> processed = Collections.synchronizedList(new ArrayList<File>());
+    ResourceProcessor processor = new ResourceProcessor() {
+      @Override
+      public void process(Resource<File> input) throws IOException {
+        File inputFile = input.getResource();
+        processed.add(inputFile);
+        DefaultOutput.copyFrom(input.associateOutput(new File(outputdir, inputFile.getName())),
+            inputFile);
+      }
+    };
+
+    // single thread, walk order
+    System.setProperty(AbstractBuildContext.PROCESSING_THREADS, "1");
+    try {
+      TestBuildContext context = newBuildContext();
+      context.processInputsInParallel(basedir, Arrays.asList("inputFile*"), null,
+          processor);
+      context.commit();
+    } finally {
+      System.clearProperty(AbstractBuildContext.PROCESSING_THREADS);
+    }
+    Assert.assertEquals(walked, processed);
+
+    // escalated rebuild on default number of threads
+    processed.clear();
+    TestBuildContext context = newBuildContext(Collections.<String, Serializable>singletonMap(
+        "changed", Boolean.TRUE));
+    context.processInputsInParallel(basedir, Arrays.asList("inputFile*"), null, processor);
+    context.commit();
+    Assert.assertEquals(100, processed.size());
+    Assert.assertEquals(100, context.getState().getOutputs().size());
+    for (int i = 0; i < 100; i++) {
+      File inputFile = new File(basedir, "inputFile" + i);
+      Assert.assertEquals(1, context.getState().getResourceOutputs(inputFile).size());
+    }
+
+    // no change rebuild
+    processed.clear();
+    context = newBuildContext(Collections.<String, Serializable>singletonMap(
+        "changed", Boolean.TRUE));
+    context.processInputsInParallel(basedir, Arrays.asList("inputFile*"), null, processor);
+    context.commit();
+    Assert.assertEquals(0, processed.size());
+    Assert.assertEquals(100, outputdir.list().length);
+  }
+
+  @Test
+  public void testProcessInputsInParallel_processorException() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      temp.newFile("inputFile" + i);
+    }
+    final IOException failure = new IOException();
+    try {
+      newBuildContext().processInputsInParallel(temp.getRoot(), null, null,
+          new ResourceProcessor() {
+            @Override
+            public void process(Resource<File> input) throws IOException {
+              throw failure;
+            }
+          });
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertSame(failure, e);
+    }
+  }
+
+  @Test
+  public void testRegisterInputs_files() throws Exception {
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < Parallel.MIN_CHUNK_SIZE * 4; i++) {
+      files.add(temp.newFile("inputFile" + i));
+    }
+    files.add(files.get(0)); // duplicate
+
+    TestBuildContext context = newBuildContext();
+    List<DefaultResourceMetadata<File>> inputs = context.registerInputs(files);
+    Assert.assertEquals(files.size(), inputs.size());
+    for (int i = 0; i < files.size(); i++) {
+      Assert.assertEquals(files.get(i).getCanonicalFile(), inputs.get(i).getResource());
+      Assert.assertEquals(NEW, inputs.get(i).getStatus());
+    }
+    Assert.assertEquals(files.size() - 1, toList(context.getRegisteredInputs()).size());
+    context.commit();
+
+    Files.append("test", files.get(1), Charsets.UTF_8);
+    context = newBuildContext();
+    inputs = context.registerInputs(files);
+    Assert.assertEquals(UNMODIFIED, inputs.get(0).getStatus());
+    Assert.assertEquals(MODIFIED, inputs.get(1).getStatus());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegisterInputs_fileDoesNotExist() throws Exception {
+    newBuildContext()
+        .registerInputs(Arrays.asList(temp.newFile("inputFile"), new File("target/does_not_exist")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegisterInputs_directory() throws Exception {
+    newBuildContext().registerInputs(Arrays.asList(temp.newFolder("inputDirectory")));
+  }
+
+  @Test
+  public void testRegisterInputSpecs() throws Exception {
+    File basedir = temp.newFolder("basedir").getCanonicalFile();
+    File a = temp.newFile("basedir/a.txt").getCanonicalFile();
+    temp.newFolder("basedir", "sub");
+    File b = temp.newFile("basedir/sub/b.txt").getCanonicalFile();
+    File c = temp.newFile("basedir/sub/c.java").getCanonicalFile();
+    File other = temp.newFolder("other").getCanonicalFile();
+    File d = temp.newFile("other/d.txt").getCanonicalFile();
+
+    InputSpec all = new InputSpec(basedir, null, null);
+    InputSpec sub = new InputSpec(new File(basedir, "sub"), Arrays.asList("*.txt"), null);
+    InputSpec excluded = new InputSpec(basedir, null, Arrays.asList("sub/"));
+    InputSpec separate = new InputSpec(other, null, null);
+
+    TestBuildContext context = newBuildContext();
+    Map<InputSpec, Collection<DefaultResourceMetadata<File>>> inputs =
+        context.registerInputSpecs(Arrays.asList(sub, all, excluded, separate));
+    Assert.assertEquals(Arrays.asList(sub, all, excluded, separate),
+        new ArrayList<>(inputs.keySet()));
+    Assert.assertEquals(toFileSet(b), toFileSet(inputs.get(sub)));
+    Assert.assertEquals(toFileSet(a, b, c), toFileSet(inputs.get(all)));
+    Assert.assertEquals(toFileSet(a), toFileSet(inputs.get(excluded)));
+    Assert.assertEquals(toFileSet(d), toFileSet(inputs.get(separate)));
+    Assert.assertEquals(4, toList(context.getRegisteredInputs()).size());
+    context.commit();
+  }
+
+  private static Set<File> toFileSet(File... files) {
+    return new TreeSet<>(Arrays.asList(files));
+  }
+
+  private static Set<File> toFileSet(Collection<? extends ResourceMetadata<File>> inputs) {
+    Set<File> files = new TreeSet<>();
+    for (ResourceMetadata<File> input : inputs) {
+      files.add(input.getResource());
+    }
+    return files;
+  }
+
   @Test
   public void testGetAssociatedOutputs() throws Exception {
     File inputFile = temp.newFile("inputFile");
@@ -338,6 +664,399 @@ public class DefaultBuildContextTest extends AbstractBuildContextTest {
     context.commit();
   }
 
+  @Test
+  public void testGetModifiedOutputs() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputFile = new File(temp.getRoot(), "outputFile").getCanonicalFile();
+    File looseOutputFile = new File(temp.getRoot(), "looseOutputFile").getCanonicalFile();
+
+    TestBuildContext context = newBuildContext();
+    DefaultOutput output = context.registerInput(inputFile).process().associateOutput(outputFile);
+    Assert.assertEquals(Collections.emptyList(), context.getModifiedOutputs());
+    write(output, "content");
+    Files.write("loose", looseOutputFile, Charsets.UTF_8); // not written through context
+    context.processOutput(looseOutputFile);
+    Assert.assertEquals(new TreeSet<>(Arrays.asList(outputFile, looseOutputFile)),
+        new TreeSet<>(context.getModifiedOutputs()));
+    context.commit();
+    Assert.assertTrue(context.getState().isModifiedOutput(outputFile));
+
+    // same contents
+    context = newBuildContext();
+    write(context.registerInput(inputFile).process().associateOutput(outputFile), "content");
+    context.processOutput(looseOutputFile);
+    Assert.assertEquals(Collections.emptyList(), context.getModifiedOutputs());
+    context.commit();
+    Assert.assertFalse(context.getState().isModifiedOutput(outputFile));
+
+    // changed contents
+    context = newBuildContext();
+    write(context.registerInput(inputFile).process().associateOutput(outputFile), "changed");
+    Assert.assertEquals(Arrays.asList(outputFile), context.getModifiedOutputs());
+    context.commit();
+  }
+
+  @Test
+  public void testProcessOutput_workspaceNotifiedAboutModifiedOutputs() throws Exception {
+    File outputFile = new File(temp.getRoot(), "outputFile").getCanonicalFile();
+    final List<File> notified = new ArrayList<>();
+    FilesystemWorkspace workspace = new FilesystemWorkspace() {
+      @Override
+      public void processOutput(File outputFile) {
+        throw new AssertionError("expected batch notification");
+      }
+
+      @Override
+      public void processOutputs(Collection<File> outputFiles) {
+        notified.addAll(outputFiles);
+      }
+    };
+
+    TestBuildContext context = newBuildContext(workspace);
+    write(context.processOutput(outputFile), "content");
+    Assert.assertTrue(notified.isEmpty());
+    context.commit();
+    Assert.assertEquals(Arrays.asList(outputFile), notified);
+
+    notified.clear();
+    context = newBuildContext(workspace);
+    write(context.processOutput(outputFile), "content");
+    context.commit();
+    Assert.assertTrue(notified.isEmpty());
+  }
+
+  @Test
+  public void testDeleteStaleOutputs_batch() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputA = new File(temp.getRoot(), "outputA").getCanonicalFile();
+    File outputB = new File(temp.getRoot(), "outputB").getCanonicalFile();
+    final List<File> deleted = new ArrayList<>();
+    FilesystemWorkspace workspace = new FilesystemWorkspace() {
+      @Override
+      public void deleteFile(File file) throws IOException {
+        throw new AssertionError("expected batch deletion");
+      }
+
+      @Override
+      public void deleteFiles(Collection<File> files) throws IOException {
+        deleted.addAll(files);
+        for (File file : files) {
+          java.nio.file.Files.delete(file.toPath());
+        }
+      }
+    };
+
+    TestBuildContext context = newBuildContext(workspace);
+    DefaultResource<File> input = context.registerInput(inputFile).process();
+    write(input.associateOutput(outputA), "a");
+    write(input.associateOutput(outputB), "b");
+    context.commit();
+
+    Files.append("changed", inputFile, Charsets.UTF_8);
+    context = newBuildContext(workspace);
+    context.registerInput(inputFile).process();
+    context.commit();
+    Assert.assertEquals(new TreeSet<>(Arrays.asList(outputA, outputB)), new TreeSet<>(deleted));
+    Assert.assertFalse(outputA.exists());
+    Assert.assertFalse(outputB.exists());
+  }
+
+  @Test
+  public void testAsyncOutputs() throws Exception {
+    File outputFile = new File(temp.getRoot(), "sub/outputFile").getCanonicalFile();
+    System.setProperty(AbstractBuildContext.ASYNC_OUTPUTS, "true");
+    try {
+      TestBuildContext context = newBuildContext();
+      write(context.processOutput(outputFile), "content");
+      context.commit();
+      Assert.assertEquals("content", Files.toString(outputFile, Charsets.UTF_8));
+      Assert.assertTrue(context.getState().isModifiedOutput(outputFile));
+
+      context = newBuildContext();
+      write(context.processOutput(outputFile), "content");
+      Assert.assertTrue(context.getModifiedOutputs().isEmpty());
+      context.commit();
+    } finally {
+      System.clearProperty(AbstractBuildContext.ASYNC_OUTPUTS);
+    }
+  }
+
+  @Test
+  public void testAsyncOutputs_largeContents() throws Exception {
+    File outputFile = new File(temp.getRoot(), "sub/outputFile").getCanonicalFile();
+    byte[] contents = new byte[DigestingFileOutputStream.MEMORY_THRESHOLD * 2 + 1];
+    Arrays.fill(contents, (byte) 'a');
+    System.setProperty(AbstractBuildContext.ASYNC_OUTPUTS, "true");
+    try {
+      TestBuildContext context = newBuildContext();
+      try (OutputStream os = context.processOutput(outputFile).newOutputStream()) {
+        os.write(contents, 0, 10);
+        os.write(contents, 10, contents.length - 10);
+      }
+      context.commit();
+      Assert.assertArrayEquals(contents, Files.toByteArray(outputFile));
+      Assert.assertTrue(context.getState().isModifiedOutput(outputFile));
+
+      context = newBuildContext();
+      try (OutputStream os = context.processOutput(outputFile).newOutputStream()) {
+        os.write(contents);
+      }
+      Assert.assertTrue(context.getModifiedOutputs().isEmpty());
+      context.commit();
+    } finally {
+      System.clearProperty(AbstractBuildContext.ASYNC_OUTPUTS);
+    }
+  }
+
+  @Test
+  public void testAsyncOutputs_failureReportedOnCommit() throws Exception {
+    File outputFile = new File(temp.newFile("file"), "outputFile");
+    System.setProperty(AbstractBuildContext.ASYNC_OUTPUTS, "true");
+    try {
+      TestBuildContext context = newBuildContext();
+      write(context.processOutput(outputFile), "content");
+      try {
+        context.commit();
+        Assert.fail();
+      } catch (IOException expected) {
+        // parent of the output is a regular file
+      }
+    } finally {
+      System.clearProperty(AbstractBuildContext.ASYNC_OUTPUTS);
+    }
+  }
+
+  @Test
+  public void testStagedOutputs() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputFile = new File(temp.getRoot(), "sub/outputFile").getCanonicalFile();
+    File stagingDirectory = new File(temp.getRoot(), "buildstate.ctx-staging");
+    System.setProperty(AbstractBuildContext.STAGED_OUTPUTS, "true");
+    try {
+      TestBuildContext context = newBuildContext();
+      DefaultResource<File> input = context.registerInput(inputFile).process();
+      write(input.associateOutput(outputFile), "first");
+      Assert.assertFalse(outputFile.exists());
+      Assert.assertEquals(Arrays.asList(outputFile), context.getModifiedOutputs());
+      context.commit();
+      Assert.assertEquals("first", Files.toString(outputFile, Charsets.UTF_8));
+      Assert.assertFalse(stagingDirectory.exists());
+
+      // build fails before commit, previous outputs and state remain valid
+      Files.append("changed", inputFile, Charsets.UTF_8);
+      context = newBuildContext();
+      input = context.registerInput(inputFile).process();
+      write(input.associateOutput(outputFile), "second");
+      Assert.assertTrue(stagingDirectory.exists());
+
+      context = newBuildContext();
+      Assert.assertFalse(context.isEscalated());
+      Assert.assertFalse(stagingDirectory.exists());
+      Assert.assertEquals("first", Files.toString(outputFile, Charsets.UTF_8));
+      input = context.registerInput(inputFile).process();
+      write(input.associateOutput(outputFile), "second");
+      context.commit();
+      Assert.assertEquals("second", Files.toString(outputFile, Charsets.UTF_8));
+    } finally {
+      System.clearProperty(AbstractBuildContext.STAGED_OUTPUTS);
+    }
+  }
+
+  @Test
+  public void testStagedOutputs_publishFailure() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputFile1 = new File(temp.getRoot(), "outputFile1").getCanonicalFile();
+    File outputFile2 = new File(temp.getRoot(), "outputFile2").getCanonicalFile();
+    System.setProperty(AbstractBuildContext.STAGED_OUTPUTS, "true");
+    try {
+      TestBuildContext context = newBuildContext();
+      DefaultResource<File> input = context.registerInput(inputFile).process();
+      write(input.associateOutput(outputFile1), "first");
+      context.commit();
+
+      Files.append("changed", inputFile, Charsets.UTF_8);
+      context = newBuildContext();
+      input = context.registerInput(inputFile).process();
+      write(input.associateOutput(outputFile1), "second");
+      write(input.associateOutput(outputFile2), "second");
+      // second output can not be moved in place
+      Assert.assertTrue(new File(outputFile2, "child").mkdirs());
+      try {
+        context.commit();
+        Assert.fail();
+      } catch (IOException e) {
+        // expected
+      }
+      Assert.assertEquals("second", Files.toString(outputFile1, Charsets.UTF_8));
+
+      // partially published outputs are not trusted
+      context = newBuildContext();
+      Assert.assertTrue(context.isEscalated());
+    } finally {
+      System.clearProperty(AbstractBuildContext.STAGED_OUTPUTS);
+    }
+  }
+
+  @Test
+  public void testStagedOutputs_permissions() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputFile = new File(temp.getRoot(), "outputFile").getCanonicalFile();
+    Assume.assumeNotNull(java.nio.file.Files.getFileAttributeView(temp.getRoot().toPath(),
+        PosixFileAttributeView.class));
+    Set<PosixFilePermission> executable = PosixFilePermissions.fromString("rwxr-xr-x");
+    System.setProperty(AbstractBuildContext.STAGED_OUTPUTS, "true");
+    try {
+      TestBuildContext context = newBuildContext();
+      write(context.registerInput(inputFile).process().associateOutput(outputFile), "first");
+      context.commit();
+      java.nio.file.Files.setPosixFilePermissions(outputFile.toPath(), executable);
+
+      Files.append("changed", inputFile, Charsets.UTF_8);
+      context = newBuildContext();
+      write(context.registerInput(inputFile).process().associateOutput(outputFile), "second");
+      context.commit();
+      Assert.assertEquals("second", Files.toString(outputFile, Charsets.UTF_8));
+      Assert.assertEquals(executable,
+          java.nio.file.Files.getPosixFilePermissions(outputFile.toPath()));
+    } finally {
+      System.clearProperty(AbstractBuildContext.STAGED_OUTPUTS);
+    }
+  }
+
+  @Test
+  public void testCommit_noopBuildDoesNotStoreState() throws Exception {
+    File inputFile = temp.newFile("inputFile");
+    File outputFile = new File(temp.getRoot(), "outputFile");
+    File stateFile = new File(temp.getRoot(), "buildstate.ctx");
+
+    TestBuildContext context = newBuildContext();
+    DefaultResource<File> input = context.registerInput(inputFile).process();
+    write(input.associateOutput(outputFile), "content");
+    input.addMessage(0, 0, "message", MessageSeverity.WARNING, null);
+    context.commit();
+    Assert.assertTrue(stateFile.setLastModified(12345000L));
+
+    context = newBuildContext();
+    Assert.assertEquals(ResourceStatus.UNMODIFIED, context.registerInput(inputFile).getStatus());
+    context.commit();
+    Assert.assertEquals(12345000L, stateFile.lastModified());
+
+    context = newBuildContext();
+    Assert.assertEquals(1, context.getOldState().getResourceMessages(inputFile).size());
+    Assert.assertTrue(context.getOldState().isOutput(outputFile));
+  }
+
+  @Test
+  public void testConcurrentProcessing() throws Exception {
+    assertConcurrentProcessing();
+  }
+
+  @Test
+  public void testConcurrentProcessing_asyncOutputs() throws Exception {
+    System.setProperty(AbstractBuildContext.ASYNC_OUTPUTS, "true");
+    try {
+      assertConcurrentProcessing();
+    } finally {
+      System.clearProperty(AbstractBuildContext.ASYNC_OUTPUTS);
+    }
+  }
+
+  private void assertConcurrentProcessing() throws Exception {
+    final File basedir = temp.newFolder("inputs").getCanonicalFile();
+    final File outputdir = new File(temp.getRoot(), "outputs").getCanonicalFile();
+    final List<File> inputFiles = new ArrayList<>();
+    for (int i = 0; i < 512; i++) {
+      File inputFile = new File(basedir, "input" + i);
+      Files.write("input" + i, inputFile, Charsets.UTF_8);
+      inputFiles.add(inputFile);
+    }
+
+    for (int build = 0; build < 5; build++) {
+      if (build > 0) {
+        // subsequent builds modify every third input
+        for (int i = build; i < inputFiles.size(); i += 3) {
+          Files.append("-" + build, inputFiles.get(i), Charsets.UTF_8);
+        }
+      }
+      final TestBuildContext context = newBuildContext();
+      runConcurrently(8, inputFiles, new Parallel.Function<File, Void>() {
+        @Override
+        public Void apply(File inputFile) throws IOException {
+          DefaultResourceMetadata<File> metadata = context.registerInput(inputFile);
+          if (metadata.getStatus() != UNMODIFIED) {
+            DefaultResource<File> input = metadata.process();
+            String contents = Files.toString(inputFile, Charsets.UTF_8);
+            write(input.associateOutput(new File(outputdir, inputFile.getName() + ".out")),
+                contents);
+            DefaultOutput.copyFrom(
+                input.associateOutput(new File(outputdir, inputFile.getName() + ".bak")), inputFile);
+            input.addMessage(1, 1, contents, MessageSeverity.INFO, null);
+          }
+          return null;
+        }
+      });
+      context.commit();
+
+      DefaultBuildContextState state = context.getState();
+      Assert.assertEquals(inputFiles.size() * 3, state.getResources().size());
+      Assert.assertEquals(inputFiles.size() * 2, state.getOutputs().size());
+      for (File inputFile : inputFiles) {
+        String contents = Files.toString(inputFile, Charsets.UTF_8);
+        File outputFile = new File(outputdir, inputFile.getName() + ".out");
+        Assert.assertEquals(2, state.getResourceOutputs(inputFile).size());
+        Assert.assertEquals(contents, Files.toString(outputFile, Charsets.UTF_8));
+        Assert.assertEquals(contents,
+            state.getResourceMessages(inputFile).iterator().next().message);
+        Assert.assertTrue(state.getResource(outputFile) instanceof FileState);
+      }
+    }
+  }
+
+  /**
+   * Applies the function to all inputs using the given number of threads. Fails if the function
+   * failed for any of the inputs.
+   */
+  private static <I> void runConcurrently(int threadCount, List<I> inputs,
+      final Parallel.Function<I, Void> function) throws Exception {
+    final ConcurrentLinkedQueue<I> queue = new ConcurrentLinkedQueue<>(inputs);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            I input;
+            while ((input = queue.poll()) != null) {
+              function.apply(input);
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (!failures.isEmpty()) {
+      AssertionError error = new AssertionError("Concurrent processing failed");
+      error.initCause(failures.get(0));
+      throw error;
+    }
+  }
+
+  private static void write(DefaultOutput output, String contents) throws IOException {
+    try (OutputStream os = output.newOutputStream()) {
+      os.write(contents.getBytes(Charsets.UTF_8));
+    }
+  }
+
   @Test
   public void testStateSerialization_useTCCL() throws Exception {
     File inputFile = temp.newFile("inputFile");
@@ -561,4 +1280,87 @@ public class DefaultBuildContextTest extends AbstractBuildContextTest {
     context = newBuildContext();
     Assert.assertTrue(context.isEscalated());
   }
+
+  @Test
+  public void testIsUpToDate() throws Exception {
+    File stateFile = new File(temp.getRoot(), "buildstate.ctx");
+    Map<String, Serializable> config = Collections.emptyMap();
+    FilesystemWorkspace workspace = new FilesystemWorkspace();
+    File inputDir = temp.newFolder("inputs");
+    File inputFile = temp.newFile("inputs/input.txt");
+    File outputFile = new File(temp.newFolder("outputs"), "output");
+
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    buildUpToDate(inputDir, outputFile, null);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // prefetched state is left for the build context
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    StatePrefetcher.prefetch(this, stateFile);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    Assert.assertNotNull(StatePrefetcher.take(stateFile, classLoader));
+
+    // configuration change
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile,
+        Collections.<String, Serializable>singletonMap("config", "parameter")));
+
+    // modified input
+    Files.append("test", inputFile, Charsets.UTF_8);
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    buildUpToDate(inputDir, outputFile, null);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // deleted output
+    Assert.assertTrue(outputFile.delete());
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    buildUpToDate(inputDir, outputFile, null);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // files that do not match input patterns are ignored
+    temp.newFile("inputs/.DS_Store");
+    temp.newFile("inputs/input.txt~");
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // new input in input directory
+    temp.newFile("inputs/newInput.txt");
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    buildUpToDate(inputDir, outputFile, null);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // new input in new subdirectory of a directory without direct inputs
+    temp.newFolder("inputs", "com", "bar");
+    temp.newFile("inputs/com/bar/X.txt");
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    buildUpToDate(inputDir, outputFile, null);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    temp.newFolder("inputs", "com", "baz");
+    temp.newFile("inputs/com/baz/Y.txt");
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // error messages
+    buildUpToDate(inputDir, outputFile, MessageSeverity.ERROR);
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+
+    // unreadable state
+    buildUpToDate(inputDir, outputFile, null);
+    Assert.assertTrue(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+    byte[] state = Files.toByteArray(stateFile);
+    Files.write(Arrays.copyOf(state, 16), stateFile);
+    Assert.assertFalse(DefaultBuildContextState.isUpToDate(workspace, stateFile, config));
+  }
+
+  private void buildUpToDate(File inputDir, File outputFile, MessageSeverity severity)
+      throws IOException {
+    TestBuildContext context = newBuildContext();
+    for (DefaultResourceMetadata<File> metadata : context.registerInputs(inputDir,
+        Arrays.asList("**/*.txt"), null)) {
+      DefaultResource<File> input = metadata.process();
+      if (severity != null) {
+        input.addMessage(1, 2, "message", severity, null);
+      }
+      Files.write("output", input.associateOutput(outputFile).getResource(), Charsets.UTF_8);
+    }
+    context.commit();
+  }
 }
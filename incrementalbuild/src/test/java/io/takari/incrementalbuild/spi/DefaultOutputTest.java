@@ -3,10 +3,21 @@ package io.takari.incrementalbuild.spi;
 import io.takari.incrementalbuild.Output;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Set;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -32,4 +43,216 @@ public class DefaultOutputTest {
     Assert.assertTrue(outputFile.canRead());
   }
 
+  @Test
+  public void testOutputStream_unchangedContentsNotReplaced() throws Exception {
+    File outputFile = new File(temp.getRoot(), "outputFile");
+
+    TestBuildContext context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 3});
+    context.commit();
+    FileState fileState = (FileState) context.getState().getResource(outputFile);
+    Assert.assertNotNull(fileState.digest);
+    Object fileKey = fileKey(outputFile);
+
+    context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 3});
+    context.commit();
+    Assert.assertEquals(fileKey, fileKey(outputFile));
+    Assert.assertEquals(fileState.lastModified, outputFile.lastModified());
+    Assert.assertArrayEquals(fileState.digest,
+        ((FileState) context.getState().getResource(outputFile)).digest);
+
+    context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 4});
+    context.commit();
+    Assert.assertArrayEquals(new byte[] {1, 2, 4}, Files.readAllBytes(outputFile.toPath()));
+    Assert.assertFalse(Arrays.equals(fileState.digest,
+        ((FileState) context.getState().getResource(outputFile)).digest));
+  }
+
+  @Test
+  public void testOutputStream_largeContents() throws Exception {
+    File outputFile = new File(temp.getRoot(), "sub/outputFile");
+    byte[] contents = new byte[DigestingFileOutputStream.MEMORY_THRESHOLD * 3 + 1];
+    Arrays.fill(contents, (byte) 'a');
+
+    TestBuildContext context = newBuildContext();
+    write(context.processOutput(outputFile), contents);
+    context.commit();
+    Assert.assertArrayEquals(contents, Files.readAllBytes(outputFile.toPath()));
+    Assert.assertEquals(1, outputFile.getParentFile().list().length); // no leftover temp files
+  }
+
+  @Test
+  public void testOutputStream_abandoned() throws Exception {
+    File outputDirectory = temp.newFolder("outputs");
+    File outputFile = new File(outputDirectory, "outputFile");
+    byte[] contents = new byte[DigestingFileOutputStream.MEMORY_THRESHOLD + 1];
+
+    // large contents are spilled outside of the output directory, the stream is never closed
+    // because the build fails
+    TestBuildContext context = newBuildContext();
+    OutputStream os = context.processOutput(outputFile).newOutputStream();
+    os.write(contents);
+    Assert.assertEquals(0, outputDirectory.list().length);
+
+    // spilled contents of the failed build are deleted by the next build
+    context = newBuildContext();
+    write(context.processOutput(outputFile), contents);
+    context.commit();
+    Assert.assertEquals(Arrays.asList("outputFile"), Arrays.asList(outputDirectory.list()));
+    Assert.assertFalse(new File(temp.getRoot(), "buildstate.ctx-tmp").exists());
+  }
+
+  @Test
+  public void testWrite_byteBuffer() throws Exception {
+    File outputFile = new File(temp.getRoot(), "outputFile");
+    byte[] contents = new byte[IncrementalFileOutputStream.MAP_THRESHOLD + 1];
+    Arrays.fill(contents, (byte) 'a');
+    Files.write(outputFile.toPath(), contents);
+    Object fileKey = fileKey(outputFile);
+
+    // no previous build digest, compared with the existing file
+    TestBuildContext context = newBuildContext();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(contents.length);
+    buffer.put(contents).flip();
+    context.processOutput(outputFile).write(buffer);
+    Assert.assertFalse(buffer.hasRemaining());
+    context.commit();
+    Assert.assertEquals(fileKey, fileKey(outputFile));
+    Assert.assertArrayEquals(FileState.digest(outputFile),
+        ((FileState) context.getState().getResource(outputFile)).digest);
+
+    context = newBuildContext();
+    Output<File> output = context.processOutput(outputFile);
+    DefaultOutput.write(output, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    context.commit();
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(outputFile.toPath()));
+    // digest of the written contents is recorded
+    Assert.assertArrayEquals(FileState.digest(outputFile),
+        ((FileState) context.getState().getResource(outputFile)).digest);
+
+    // and used to detect unchanged contents
+    context = newBuildContext();
+    context.processOutput(outputFile).write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    Assert.assertTrue(context.getModifiedOutputs().isEmpty());
+    context.commit();
+  }
+
+  @Test
+  public void testCopyFrom() throws Exception {
+    File source = temp.newFile("source");
+    byte[] contents = new byte[DigestingFileOutputStream.MEMORY_THRESHOLD + 1];
+    Arrays.fill(contents, (byte) 'a');
+    Files.write(source.toPath(), contents);
+    File outputFile = new File(temp.getRoot(), "sub/outputFile");
+
+    TestBuildContext context = newBuildContext();
+    context.processOutput(outputFile).copyFrom(source);
+    Assert.assertEquals(Arrays.asList(outputFile.getCanonicalFile()),
+        context.getModifiedOutputs());
+    context.commit();
+    Assert.assertArrayEquals(contents, Files.readAllBytes(outputFile.toPath()));
+    Assert.assertArrayEquals(FileState.digest(source),
+        ((FileState) context.getState().getResource(outputFile.getCanonicalFile())).digest);
+    Object fileKey = fileKey(outputFile);
+
+    // same contents
+    context = newBuildContext();
+    context.processOutput(outputFile).copyFrom(source.toPath());
+    Assert.assertTrue(context.getModifiedOutputs().isEmpty());
+    context.commit();
+    Assert.assertEquals(fileKey, fileKey(outputFile));
+
+    // changed contents
+    Files.write(source.toPath(), new byte[] {1, 2, 3});
+    context = newBuildContext();
+    context.processOutput(outputFile).copyFrom(source);
+    context.commit();
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(outputFile.toPath()));
+    Assert.assertArrayEquals(FileState.digest(source),
+        ((FileState) context.getState().getResource(outputFile.getCanonicalFile())).digest);
+
+    // changed contents of the same size
+    Files.write(source.toPath(), new byte[] {1, 2, 4});
+    context = newBuildContext();
+    context.processOutput(outputFile).copyFrom(source);
+    context.commit();
+    Assert.assertArrayEquals(new byte[] {1, 2, 4}, Files.readAllBytes(outputFile.toPath()));
+    Assert.assertArrayEquals(FileState.digest(source),
+        ((FileState) context.getState().getResource(outputFile.getCanonicalFile())).digest);
+  }
+
+  @Test
+  public void testOutputStream_attributesCapturedOnClose() throws Exception {
+    File outputFile = new File(temp.getRoot(), "outputFile").getCanonicalFile();
+
+    TestBuildContext context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 3});
+    context.commit();
+    FileState state = (FileState) context.getState().getResource(outputFile);
+    Assert.assertEquals(outputFile.lastModified(), state.lastModified);
+    Assert.assertEquals(3, state.length);
+
+    // unchanged contents, attributes of the existing file
+    Assert.assertTrue(outputFile.setLastModified(12345000L));
+    context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 3});
+    context.commit();
+    state = (FileState) context.getState().getResource(outputFile);
+    Assert.assertEquals(12345000L, state.lastModified);
+    Assert.assertEquals(3, state.length);
+  }
+
+  @Test
+  public void testOutputStream_permissionsPreserved() throws Exception {
+    File outputFile = new File(temp.getRoot(), "outputFile");
+    Assume.assumeNotNull(
+        Files.getFileAttributeView(temp.getRoot().toPath(), PosixFileAttributeView.class));
+    Set<PosixFilePermission> executable = PosixFilePermissions.fromString("rwxr-xr-x");
+
+    TestBuildContext context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 3});
+    context.commit();
+    // new files get default rather than owner-only permissions
+    File reference = temp.newFile("reference");
+    Assert.assertEquals(Files.getPosixFilePermissions(reference.toPath()),
+        Files.getPosixFilePermissions(outputFile.toPath()));
+    Files.setPosixFilePermissions(outputFile.toPath(), executable);
+
+    // changed contents, small and large, written with a stream, a buffer and copied
+    context = newBuildContext();
+    write(context.processOutput(outputFile), new byte[] {1, 2, 4});
+    context.commit();
+    Assert.assertEquals(executable, Files.getPosixFilePermissions(outputFile.toPath()));
+
+    context = newBuildContext();
+    byte[] large = new byte[DigestingFileOutputStream.MEMORY_THRESHOLD + 1];
+    write(context.processOutput(outputFile), large);
+    context.commit();
+    Assert.assertEquals(executable, Files.getPosixFilePermissions(outputFile.toPath()));
+
+    context = newBuildContext();
+    context.processOutput(outputFile).write(ByteBuffer.wrap(new byte[] {1, 2, 5}));
+    context.commit();
+    Assert.assertEquals(executable, Files.getPosixFilePermissions(outputFile.toPath()));
+
+    File source = temp.newFile("source");
+    Files.write(source.toPath(), new byte[] {1, 2, 6});
+    context = newBuildContext();
+    context.processOutput(outputFile).copyFrom(source);
+    context.commit();
+    Assert.assertEquals(executable, Files.getPosixFilePermissions(outputFile.toPath()));
+    Assert.assertArrayEquals(new byte[] {1, 2, 6}, Files.readAllBytes(outputFile.toPath()));
+  }
+
+  private static void write(Output<File> output, byte[] contents) throws IOException {
+    try (OutputStream os = output.newOutputStream()) {
+      os.write(contents);
+    }
+  }
+
+  private static Object fileKey(File file) throws IOException {
+    return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+  }
 }
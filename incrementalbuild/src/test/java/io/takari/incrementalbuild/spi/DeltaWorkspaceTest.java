@@ -6,6 +6,7 @@ import static org.junit.Assert.assertEquals;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -14,7 +15,9 @@ import java.util.Set;
 import org.junit.Assert;
 import org.junit.Test;
 
+import io.takari.incrementalbuild.Resource;
 import io.takari.incrementalbuild.ResourceMetadata;
+import io.takari.incrementalbuild.ResourceProcessor;
 import io.takari.incrementalbuild.ResourceStatus;
 import io.takari.incrementalbuild.workspace.Workspace;
 
@@ -219,6 +222,34 @@ public class DeltaWorkspaceTest extends AbstractBuildContextTest {
     Assert.assertFalse(new File(outputdir, "file.out").exists());
   }
 
+  @Test
+  public void testProcessInputsInParallel() throws Exception {
+    File basedir = temp.newFolder("basedir").getCanonicalFile();
+    final Thread thread = Thread.currentThread();
+    DeltaWorkspace workspace = new DeltaWorkspace() {
+      @Override
+      public void walk(File basedir, FileVisitor visitor) throws IOException {
+        // workspaces other than the filesystem are only called on the calling thread
+        Assert.assertSame(thread, Thread.currentThread());
+        super.walk(basedir, visitor);
+      }
+    };
+    for (int i = 0; i < 10; i++) {
+      workspace.added.add(temp.newFile("basedir/file" + i).getCanonicalFile());
+    }
+    final List<File> processed = new ArrayList<>();
+    TestBuildContext ctx = newBuildContext(workspace);
+    ctx.processInputsInParallel(basedir, null, null, new ResourceProcessor() {
+      @Override
+      public void process(Resource<File> input) {
+        Assert.assertSame(thread, Thread.currentThread());
+        processed.add(input.getResource());
+      }
+    });
+    assertEquals(workspace.added, new HashSet<>(processed));
+    ctx.commit();
+  }
+
   private <T> T only(Iterable<T> values) {
     List<T> list = toList(values);
     assertEquals(1, list.size());
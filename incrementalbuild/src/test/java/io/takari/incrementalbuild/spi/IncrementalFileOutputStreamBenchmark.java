@@ -0,0 +1,106 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.io.Files;
+
+/**
+ * Measures {@link IncrementalFileOutputStream} rewrites of an existing file with identical,
+ * early-diverging and late-diverging contents.
+ * <p>
+ * JMH benchmark sources are only generated with {@code benchmark} profile, run with
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=io.takari.incrementalbuild.spi.IncrementalFileOutputStreamBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class IncrementalFileOutputStreamBenchmark {
+
+  @Param({"4096", "1048576"})
+  public int size;
+
+  @Param({"identical", "early", "late"})
+  public String rewrite;
+
+  private File file;
+
+  private byte[] original;
+
+  private byte[] data;
+
+  @Setup(Level.Trial)
+  public void setupTrial() throws IOException {
+    file = File.createTempFile("incremental", ".bin");
+    original = new byte[size];
+    new Random(12345).nextBytes(original);
+    data = original.clone();
+    switch (rewrite) {
+      case "early":
+        data[0] ^= 0xff;
+        break;
+      case "late":
+        data[size - 1] ^= 0xff;
+        break;
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setupInvocation() throws IOException {
+    if (!"identical".equals(rewrite)) {
+      Files.write(original, file);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void writeArray() throws IOException {
+    try (IncrementalFileOutputStream os = new IncrementalFileOutputStream(file)) {
+      os.write(data);
+    }
+  }
+
+  @Benchmark
+  public void writeBytes() throws IOException {
+    try (IncrementalFileOutputStream os = new IncrementalFileOutputStream(file)) {
+      for (byte b : data) {
+        os.write(b);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(IncrementalFileOutputStreamBenchmark.class.getSimpleName()).build()).run();
+  }
+}
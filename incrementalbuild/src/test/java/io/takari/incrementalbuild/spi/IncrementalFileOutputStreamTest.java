@@ -175,6 +175,62 @@ public class IncrementalFileOutputStreamTest {
     Assert.assertArrayEquals(Arrays.copyOfRange(data, 30, 30 + 60), Files.asByteSource(file).read());
   }
 
+  @Test
+  public void testMixed_diff() throws Exception {
+    File file = temp.newFile();
+    byte[] data = data(IncrementalFileOutputStream.BUF_SIZE * 3);
+    Files.write(data, file);
+    change(data, IncrementalFileOutputStream.BUF_SIZE + 7);
+
+    try (IncrementalFileOutputStream os = new IncrementalFileOutputStream(file)) {
+      int off = 0;
+      for (; off < 100; off++) {
+        os.write(data[off]);
+      }
+      os.write(data, off, IncrementalFileOutputStream.BUF_SIZE * 2);
+      off += IncrementalFileOutputStream.BUF_SIZE * 2;
+      os.write(data, off, data.length - off);
+    }
+    Assert.assertArrayEquals(data, Files.asByteSource(file).read());
+  }
+
+  @Test
+  public void testMapped() throws Exception {
+    File file = temp.newFile();
+    byte[] data = data(IncrementalFileOutputStream.MAP_THRESHOLD + 100);
+    Files.write(data, file);
+    long lastModified = file.lastModified() - 10000;
+    Assert.assertTrue(file.setLastModified(lastModified));
+
+    writeAndAssertBuff(file, data);
+    Assert.assertEquals(lastModified, file.lastModified());
+
+    change(data, data.length - 10);
+    writeAndAssertBuff(file, data);
+    writeAndAssertBuff(file, resize(data, -IncrementalFileOutputStream.BUF_SIZE));
+    writeAndAssertBuff(file, resize(data, IncrementalFileOutputStream.BUF_SIZE));
+  }
+
+  @Test
+  public void testMissingParentDirectory() throws Exception {
+    File file = new File(temp.getRoot(), "sub/dir/file.bin");
+    writeAndAssertBuff(file, data(10));
+  }
+
+  @Test
+  public void testMismatch() throws Exception {
+    byte[] data = data(100);
+    byte[] copy = data.clone();
+    Assert.assertEquals(-1, IncrementalFileOutputStream.mismatch(data, 0, copy, 0, data.length));
+    for (int i : new int[] {3, 7, 8, 63, 99}) {
+      copy = data.clone();
+      change(copy, i);
+      Assert.assertEquals(i, IncrementalFileOutputStream.mismatch(data, 0, copy, 0, data.length));
+      Assert.assertEquals(i - 3,
+          IncrementalFileOutputStream.mismatch(data, 3, copy, 3, data.length - 3));
+    }
+  }
+
   @Test
   public void testReadOnly_file() throws Exception {
     File file = temp.newFile();
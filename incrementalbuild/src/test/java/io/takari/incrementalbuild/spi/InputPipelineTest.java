@@ -0,0 +1,169 @@
+package io.takari.incrementalbuild.spi;
+
+import io.takari.incrementalbuild.workspace.Workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+public class InputPipelineTest {
+
+  @Rule
+  public final TemporaryFolder temp = new TemporaryFolder();
+
+  private static class TestPipeline extends InputPipeline<File> {
+    final List<File> processed = Collections.synchronizedList(new ArrayList<File>());
+
+    @Override
+    protected boolean matches(File file) {
+      return file.getName().endsWith(".txt");
+    }
+
+    @Override
+    protected File select(File file, long lastModified, long length,
+        Workspace.ResourceStatus status) {
+      return file.getName().startsWith("skip") ? null : file;
+    }
+
+    @Override
+    protected void process(File file) throws IOException {
+      processed.add(file);
+    }
+  }
+
+  @Test
+  public void testStages() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      temp.newFile("file" + i + ".txt");
+      temp.newFile("file" + i + ".dat");
+    }
+    temp.newFile("skip.txt");
+
+    TestPipeline pipeline = new TestPipeline();
+    pipeline.run(new FilesystemWorkspace(), temp.getRoot(), 4);
+
+    Assert.assertEquals(100, pipeline.processed.size());
+    List<InputPipeline.Stage> stages = pipeline.getStages();
+    Assert.assertEquals(201, stages.get(0).getItems()); // walk
+    Assert.assertEquals(201, stages.get(1).getItems()); // match
+    Assert.assertEquals(101, stages.get(2).getItems()); // status
+    Assert.assertEquals(100, stages.get(3).getItems()); // process
+  }
+
+  @Test
+  public void testWalkOrder() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      Files.write(new byte[i % 7], temp.newFile("file" + i + ".txt"));
+    }
+    final List<File> walked = new ArrayList<>();
+    new FilesystemWorkspace().walk(temp.getRoot(), new Workspace.FileVisitor() {
+      @Override
+      public void visit(File file, long lastModified, long length,
+          Workspace.ResourceStatus status) {
+        walked.add(file);
+      }
+    });
+
+    // single process thread processes items as they are selected
+    final CountDownLatch firstProcessed = new CountDownLatch(1);
+    final Thread thread = Thread.currentThread();
+    TestPipeline pipeline = new TestPipeline() {
+      @Override
+      protected File select(File file, long lastModified, long length,
+          Workspace.ResourceStatus status) {
+        if (!file.equals(walked.get(0))) {
+          try {
+            Assert.assertTrue(firstProcessed.await(10, TimeUnit.SECONDS));
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        }
+        return file;
+      }
+
+      @Override
+      protected void process(File file) throws IOException {
+        Assert.assertSame(thread, Thread.currentThread());
+        super.process(file);
+        firstProcessed.countDown();
+      }
+    };
+    pipeline.run(new FilesystemWorkspace(), temp.getRoot(), 1);
+
+    Assert.assertEquals(walked, pipeline.processed);
+  }
+
+  @Test
+  public void testLargestFirst() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      Files.write(new byte[i], temp.newFile("file" + i + ".txt"));
+    }
+
+    // one process thread holds its first item until all other items are processed by the other
+    // thread, which only starts processing once all items are selected
+    final AtomicBoolean first = new AtomicBoolean(true);
+    final CountDownLatch othersProcessed = new CountDownLatch(19);
+    final List<File> others = Collections.synchronizedList(new ArrayList<File>());
+    final TestPipeline[] pipeline = new TestPipeline[1];
+    pipeline[0] = new TestPipeline() {
+      @Override
+      protected void process(File file) throws IOException {
+        try {
+          while (!pipeline[0].isSelectionDone()) {
+            Thread.sleep(1);
+          }
+          if (first.getAndSet(false)) {
+            Assert.assertTrue(othersProcessed.await(10, TimeUnit.SECONDS));
+          } else {
+            others.add(file);
+            othersProcessed.countDown();
+          }
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    pipeline[0].run(new FilesystemWorkspace(), temp.getRoot(), 2);
+
+    // the first item of the other thread may have been taken before all items were selected
+    Assert.assertEquals(19, others.size());
+    for (int i = 2; i < others.size(); i++) {
+      Assert.assertTrue(others.get(i - 1).length() > others.get(i).length());
+    }
+  }
+
+  @Test
+  public void testProcessingFailure() throws Exception {
+    for (int i = 0; i < 2 * InputPipeline.QUEUE_CAPACITY; i++) {
+      temp.newFile("file" + i + ".txt");
+    }
+
+    final IOException failure = new IOException();
+    for (int threads : new int[] {1, 2}) {
+      TestPipeline pipeline = new TestPipeline() {
+        @Override
+        protected void process(File file) throws IOException {
+          throw failure;
+        }
+      };
+      try {
+        pipeline.run(new FilesystemWorkspace(), temp.getRoot(), threads);
+        Assert.fail();
+      } catch (IOException e) {
+        Assert.assertSame(failure, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package io.takari.incrementalbuild.spi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutputWriterTest {
+
+  private static byte[] write(Charset charset, String... strings) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    try (Writer writer = new OutputWriter(os, charset)) {
+      for (String string : strings) {
+        writer.write(string);
+      }
+    }
+    return os.toByteArray();
+  }
+
+  private static String repeat(String string, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      sb.append(string);
+    }
+    return sb.toString();
+  }
+
+  private static void assertEncoded(Charset charset, String... strings) throws IOException {
+    StringBuilder expected = new StringBuilder();
+    for (String string : strings) {
+      expected.append(string);
+    }
+    Assert.assertArrayEquals(expected.toString().getBytes(charset), write(charset, strings));
+  }
+
+  @Test
+  public void testAscii() throws Exception {
+    assertEncoded(StandardCharsets.UTF_8, "");
+    assertEncoded(StandardCharsets.UTF_8, "abc", "def");
+    assertEncoded(StandardCharsets.UTF_8, repeat("abcdefg", OutputWriter.BUF_SIZE));
+  }
+
+  @Test
+  public void testNonAscii() throws Exception {
+    String text = repeat("abc\u00e9\u4e2d\ud83d\ude00", OutputWriter.BUF_SIZE / 3);
+    assertEncoded(StandardCharsets.UTF_8, text);
+    assertEncoded(StandardCharsets.ISO_8859_1, text);
+    assertEncoded(StandardCharsets.UTF_16, text);
+    assertEncoded(Charset.forName("windows-1251"), text);
+  }
+
+  @Test
+  public void testSurrogatePairSplitAcrossChunks() throws Exception {
+    String prefix = repeat("a", OutputWriter.BUF_SIZE - 1);
+    assertEncoded(StandardCharsets.UTF_8, prefix, "\ud83d", "\ude00", "b");
+    assertEncoded(StandardCharsets.UTF_8, prefix + "\ud83d\ude00b");
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+    assertEncoded(StandardCharsets.UTF_8, "a\ud83d");
+    assertEncoded(StandardCharsets.UTF_8, "a\ude00b");
+  }
+
+  @Test
+  public void testInterleavedWriters() throws Exception {
+    ByteArrayOutputStream a = new ByteArrayOutputStream();
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    try (Writer wa = new OutputWriter(a, StandardCharsets.UTF_8);
+        Writer wb = new OutputWriter(b, StandardCharsets.UTF_8)) {
+      wa.write("a\u00e9");
+      wb.write("b\u00e8");
+      wa.write('c');
+      wb.write('d');
+    }
+    Assert.assertArrayEquals("a\u00e9c".getBytes(StandardCharsets.UTF_8), a.toByteArray());
+    Assert.assertArrayEquals("b\u00e8d".getBytes(StandardCharsets.UTF_8), b.toByteArray());
+
+    // encodings returned to the pool are reusable
+    Assert.assertTrue(Arrays.equals("x".getBytes(StandardCharsets.UTF_8),
+        write(StandardCharsets.UTF_8, "x")));
+  }
+
+  @Test
+  public void testPoolIsBounded() throws Exception {
+    Writer[] writers = new Writer[OutputWriter.POOL_SIZE + 2];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new OutputWriter(new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+    }
+    for (Writer writer : writers) {
+      writer.close();
+    }
+    Assert.assertEquals(OutputWriter.POOL_SIZE, OutputWriter.getPoolSize());
+  }
+
+  @Test
+  public void testStreamNotClosedWhenEncodingFails() throws Exception {
+    final IOException failure = new IOException();
+    final boolean[] closed = new boolean[1];
+    OutputStream os = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw failure;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        throw failure;
+      }
+
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    Writer writer = new OutputWriter(os, StandardCharsets.UTF_8);
+    writer.write("abc");
+    try {
+      writer.close();
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertSame(failure, e);
+    }
+    Assert.assertFalse(closed[0]);
+    writer.close(); // no-op
+    Assert.assertFalse(closed[0]);
+  }
+}